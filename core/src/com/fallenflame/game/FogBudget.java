@@ -0,0 +1,209 @@
+package com.fallenflame.game;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * Caps the number of live fog particles, and decides how dense the fog of each tile is.
+ *
+ * A fog particle is what FogController puts on a tile: one pooled effect, or one FogLayer source. Each tile's
+ * importance is its distance (in tiles, the larger of the x and y offsets) to the nearer of the player and the
+ * camera center. Tiles within NEAR_RADIUS get the full density, tiles within FAR_RADIUS half of it, and tiles further
+ * out a quarter, with plain fog only on every other tile (the fog sprite spans several tiles, so this leaves no
+ * holes).
+ *
+ * When a tile needs more particles than the cap leaves room for, particles are reclaimed from less important tiles:
+ * first from tiles fading out of the camera window, then from the tiles furthest away. A tile that cannot make room
+ * gets no new fog this frame, and tries again on the next.
+ */
+public class FogBudget {
+    /** Distance (in tiles) within which fog has its full density */
+    public static final int NEAR_RADIUS = 8;
+    /** Distance (in tiles) within which fog has half of its density */
+    public static final int FAR_RADIUS = 16;
+    /** Distance given to tiles outside the camera window, which are reclaimed first */
+    private static final int OUTSIDE = Integer.MAX_VALUE;
+
+    /** Most fog particles alive at once */
+    private final int maxLive;
+    /** Tiles of the player and the camera center this frame */
+    private int playerX, playerY, centerX, centerY;
+
+    /** Tiles holding fog that may be reclaimed this frame, and their distances */
+    private final IntArray candidates = new IntArray();
+    private final IntArray distances = new IntArray();
+    /** Candidates sorted from least to most important, and the next one to reclaim */
+    private int[] victims = new int[0];
+    private int[] victimDistance = new int[0];
+    private int numVictims;
+    /** Start of each distance bucket of the sort */
+    private int[] bucketStart = new int[0];
+    private int nextVictim;
+    /** Whether the candidates have been sorted into victims this frame */
+    private boolean sorted;
+
+    // Statistics
+    /** Fog particles alive and pooled at the end of the last frame */
+    private int live;
+    private int pooled;
+    /** Fog particles reclaimed since the level started */
+    private long evicted;
+
+    /**
+     * Creates a budget with the given cap.
+     *
+     * @param maxLive Most fog particles alive at once
+     */
+    public FogBudget(int maxLive) {
+        this.maxLive = maxLive;
+    }
+
+    /** @return the most fog particles alive at once */
+    public int getMaxLive() { return maxLive; }
+
+    /** @return the number of fog particles alive at the end of the last frame */
+    public int getLive() { return live; }
+
+    /** @return the number of fog particles pooled for reuse at the end of the last frame */
+    public int getPooled() { return pooled; }
+
+    /** @return the number of fog particles reclaimed since the level started */
+    public long getEvicted() { return evicted; }
+
+    /**
+     * Starts a frame.
+     *
+     * @param playerX Tile of the player
+     * @param playerY Tile of the player
+     * @param centerX Tile at the center of the camera
+     * @param centerY Tile at the center of the camera
+     */
+    public void beginFrame(int playerX, int playerY, int centerX, int centerY) {
+        this.playerX = playerX;
+        this.playerY = playerY;
+        this.centerX = centerX;
+        this.centerY = centerY;
+        candidates.clear();
+        distances.clear();
+        sorted = false;
+    }
+
+    /**
+     * Ends a frame, recording its counts.
+     *
+     * @param live Fog particles alive
+     * @param pooled Fog particles pooled for reuse
+     */
+    public void endFrame(int live, int pooled) {
+        this.live = live;
+        this.pooled = pooled;
+    }
+
+    /**
+     * Returns the distance (in tiles) from a tile to the nearer of the player and the camera center
+     *
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @return the distance
+     */
+    public int distance(int x, int y) {
+        return Math.min(Math.max(Math.abs(x - playerX), Math.abs(y - playerY)),
+                Math.max(Math.abs(x - centerX), Math.abs(y - centerY)));
+    }
+
+    /**
+     * Returns how many fog particles a tile should have
+     *
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @param count Number of particles at full density
+     * @return the number of particles at the tile's level of detail
+     */
+    public int density(int x, int y, int count) {
+        int d = distance(x, y);
+        if (d <= NEAR_RADIUS) return count;
+        if (d <= FAR_RADIUS) return (count + 1) / 2;
+        if (count > 1) return (count + 3) / 4;
+        return (x + y) % 2 == 0 ? count : 0;
+    }
+
+    /**
+     * Returns whether the given number of particles can be added without reclaiming any
+     *
+     * @param liveNow Fog particles alive
+     * @param n Particles to add
+     * @return whether they fit
+     */
+    public boolean fits(int liveNow, int n) { return liveNow + n <= maxLive; }
+
+    /** @return whether the tiles that may be reclaimed have been offered this frame */
+    public boolean hasSortedCandidates() { return sorted; }
+
+    /**
+     * Offers a tile holding fog for reclaiming this frame
+     *
+     * @param tile The tile (by index)
+     * @param inWindow Whether the tile is in the camera window (tiles outside it are reclaimed first)
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     */
+    public void offer(int tile, boolean inWindow, int x, int y) {
+        candidates.add(tile);
+        distances.add(inWindow ? distance(x, y) : OUTSIDE);
+    }
+
+    /** Sorts the offered tiles from least to most important. Call once they have all been offered. */
+    public void sortCandidates() {
+        numVictims = candidates.size;
+        nextVictim = 0;
+        if (victims.length < numVictims) {
+            victims = new int[numVictims];
+            victimDistance = new int[numVictims];
+        }
+        // Counting sort on the distance, with every tile outside the window in one extra bucket
+        int maxDistance = 0;
+        for (int i = 0; i < numVictims; i++) {
+            if (distances.get(i) != OUTSIDE) maxDistance = Math.max(maxDistance, distances.get(i));
+        }
+        int buckets = maxDistance + 3;
+        if (bucketStart.length < buckets) bucketStart = new int[buckets];
+        int[] start = bucketStart;
+        Arrays.fill(start, 0, buckets, 0);
+        for (int i = 0; i < numVictims; i++) start[bucket(distances.get(i), maxDistance) + 1]++;
+        for (int b = 1; b < buckets; b++) start[b] += start[b - 1];
+        for (int i = 0; i < numVictims; i++) {
+            int slot = start[bucket(distances.get(i), maxDistance)]++;
+            victims[slot] = candidates.get(i);
+            victimDistance[slot] = distances.get(i);
+        }
+        sorted = true;
+    }
+
+    /** Bucket of a distance, least important first */
+    private static int bucket(int distance, int maxDistance) {
+        return distance == OUTSIDE ? 0 : maxDistance - distance + 1;
+    }
+
+    /**
+     * Takes the least important offered tile, if it is less important than the given tile.
+     *
+     * @param x Tile x-coor of the tile that needs room
+     * @param y Tile y-coor of the tile that needs room
+     * @return the tile (by index) to reclaim, or -1 if there is none
+     */
+    public int nextVictim(int x, int y) {
+        if (nextVictim >= numVictims) return -1;
+        int d = distance(x, y);
+        int vd = victimDistance[nextVictim];
+        if (vd != OUTSIDE && vd <= d) return -1;
+        return victims[nextVictim++];
+    }
+
+    /**
+     * Records reclaimed fog particles
+     *
+     * @param n The number of particles
+     */
+    public void recordEvicted(int n) { evicted += n; }
+}
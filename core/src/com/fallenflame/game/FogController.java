@@ -1,22 +1,72 @@
 package com.fallenflame.game;
 
+import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.g2d.ParticleEffect;
 import com.badlogic.gdx.graphics.g2d.ParticleEffectPool;
+import com.badlogic.gdx.graphics.g2d.ParticleEmitter;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.utils.Array;
-import com.fallenflame.game.enemies.EnemyModel;
-import java.util.Iterator;
-import java.util.List;
+import com.badlogic.gdx.utils.IntArray;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 public class FogController {
+    /** How the fog is drawn */
+    public enum FogRenderer {
+        /** One pooled ParticleEffect per fog source, each drawn on its own */
+        EFFECTS,
+        /** One FogLayer simulating every fog source in flat arrays, drawn as a single batch */
+        BATCHED
+    }
+
+    /** What the fog of a tile is doing */
+    public enum FogState {
+        /** No fog */
+        EMPTY,
+        /** Plain fog (NUM_FOG_NORMAL particles, fewer far away) */
+        NORMAL,
+        /** Thick fog around an enemy (NUM_FOG_ENEMIES particles, on top of any plain fog) */
+        ENEMY_DENSE,
+        /** Thinner fog around a shooter (NUM_FOG_SHOOTER particles, on top of any plain fog) */
+        SHOOTER_DENSE,
+        /** Left the camera window: its particles stop emitting, and the tile is empty once they die */
+        CLEARING
+    }
+
+    /** Step (in seconds) of the particle simulation that pre-warms the fog */
+    private static final float PREWARM_STEP = 0.25f;
+
     private ParticleEffectPool fogPool;
-    private fogParticle[][] fog;
+    /** Seconds a fog particle takes to go from spawning to dying, so fog that old has reached its steady state */
+    private float warmTime;
+    /** Fog effects of every tile when the renderer is EFFECTS (null otherwise) */
+    private FogEffectArena fog;
+    /** Fog of every tile when the renderer is BATCHED (null otherwise) */
+    private FogLayer fogLayer;
     private LevelModel levelModel;
-    private PlayerModel playerModel; //Needed for light radius
-    private List<FlareModel> flareModels;//Needed for flare light radius
-    private List<EnemyModel> enemyModels; //Needed to determine if an enemy is agressive.
+    private PlayerModel playerModel; //Needed for the level of detail around the player
+    private FogBudget budget; //Caps the live fog particles and sets how dense each tile's fog is
+    /** State of each tile's fog (by x + y * tileGridW) */
+    private FogState[] tileState;
+    /** Dense fog sources (on top of any plain fog) each tile holds, so thinned fog can be topped up as it nears */
+    private int[] denseFog;
+    private IlluminationGrid illumination; //Which tiles the player, flares and aggressive enemies light this tick
+    /** Camera window (in tiles, clamped to the grid, upper bounds exclusive) of the last frame */
+    private int windowX0, windowY0, windowX1, windowY1;
+    /** Tiles (by x + y * tileGridW) that left the camera window while they still had fog, which fades out */
+    private final IntArray leftWindowTiles = new IntArray();
+    /** Whether each tile is in leftWindowTiles */
+    private boolean[] leftWindow;
+    /** Fog logic runs on one of UPDATE_SLICES interleaved subsets of the window per frame: the tiles whose x and y
+     * parity match the slice (a 2x2 pattern), so each tile is refreshed every UPDATE_SLICES frames. Tiles whose light
+     * or characters changed, and tiles that just entered the window, are refreshed at once. */
+    private static final int UPDATE_SLICES = 4;
+    /** Slice refreshed this frame */
+    private int slice;
+    /** Number of updateFog() calls, and the call each tile was last refreshed in */
+    private int frame;
+    private int[] refreshed;
     private int tileGridW;
     private int tileGridH;
     private final int NUM_FOG_ENEMIES = 12;
@@ -28,158 +78,350 @@ public class FogController {
     private static Logger log = Logger.getLogger("FogController");
 
     private final int[] DIRECTIONS = {1, -1};
-    public void initialize(ParticleEffect fogTemplate, LevelModel lm, PlayerModel pm, List<FlareModel> fm, List<EnemyModel> em) {
-        /*Using a pool doesn't actually help much, as if the number of models is higher than the max it just makes a new
-        object. However, it has a slight performance help in terms of reusing objects. 100 is a random value, can be changed*/
-        fogPool = new ParticleEffectPool(fogTemplate, 50, 500);
+    public void initialize(ParticleEffect fogTemplate, LevelModel lm, PlayerModel pm, IlluminationGrid ig,
+                           FogRenderer renderer, FogBudget fb) {
+        /*The budget caps how many effects are ever in use, so the pool never has to keep more than that*/
+        fogPool = new ParticleEffectPool(fogTemplate, 50, fb.getMaxLive());
         levelModel = lm;
         playerModel = pm;
-        flareModels = fm;
-        enemyModels = em;
+        illumination = ig;
+        budget = fb;
         int[] n = levelModel.tileGridSize();
         tileGridW = n[0];
         tileGridH = n[1];
-        /*Using a 2D array of an array (called fogParticle) to keep track of which fog particles are complete and need
-        * new particles versus which ones do not. This fixes the initial issue of us creating 10,000 fog particles as
-        * fog particles were created whether or not the particle around that tile was complete*/
-        fog = new fogParticle[tileGridW][tileGridH];
+        tileState = new FogState[tileGridW * tileGridH];
+        Arrays.fill(tileState, FogState.EMPTY);
+        denseFog = new int[tileGridW * tileGridH];
+        fog = null;
+        fogLayer = null;
+        if (renderer == FogRenderer.BATCHED) {
+            if (FogLayer.supports(fogTemplate)) {
+                fogLayer = new FogLayer(fogTemplate, tileGridW * tileGridH);
+            } else {
+                Gdx.app.error("FogController", "Fog template cannot be batched, drawing it as effects",
+                        new IllegalArgumentException());
+            }
+        }
+        if (fogLayer == null) {
+            /*Each tile gets slots for as many effects as its densest state holds: plain fog that turned into shooter
+            * fog and then into enemy fog*/
+            fog = new FogEffectArena(tileGridW * tileGridH, NUM_FOG_NORMAL + NUM_FOG_SHOOTER + NUM_FOG_ENEMIES);
+        }
+        windowX0 = windowY0 = windowX1 = windowY1 = 0;
+        leftWindowTiles.clear();
+        leftWindow = new boolean[tileGridW * tileGridH];
+        slice = 0;
+        frame = 0;
+        refreshed = new int[tileGridW * tileGridH];
         tileSize = levelModel.getTileSize();
+        warmTime = 0;
+        for (ParticleEmitter e : fogTemplate.getEmitters()) {
+            warmTime = Math.max(warmTime, (e.getDuration().getLowMax() + e.getLife().getHighMax()) / 1000f);
+        }
+    }
+
+    /**
+     * Builds the fog of the first frame before play begins, so the first frame costs what any other frame does.
+     *
+     * The pool (or the fog layer) is filled for the fog of the camera window at full density plus the dense fog of
+     * every enemy, within the budget, so moving and meeting enemies does not allocate. The window's fog is then
+     * created and its particles simulated until they are as thick as they would be after playing for a while. Call
+     * once the level is populated and the illumination grid has been updated.
+     *
+     * @param cameraX Camera x-coor of the first frame (in pixels)
+     * @param cameraY Camera y-coor of the first frame (in pixels)
+     * @param viewWidth Width of the view (in pixels)
+     * @param viewHeight Height of the view (in pixels)
+     * @param scale The draw scale
+     * @param enemies Number of enemies in the level
+     */
+    public void prewarm(float cameraX, float cameraY, float viewWidth, float viewHeight, Vector2 scale, int enemies) {
+        updateFog(cameraX, cameraY, viewWidth, viewHeight, scale);
+        int open = 0;
+        for (int x = windowX0; x < windowX1; x++) {
+            for (int y = windowY0; y < windowY1; y++) {
+                if (!levelModel.hasWall(x, y) && !levelModel.hasTree(x, y)) open++;
+            }
+        }
+        int expected = Math.min(budget.getMaxLive(), open * NUM_FOG_NORMAL + enemies * NUM_FOG_ENEMIES);
+        if (fogLayer != null) {
+            fogLayer.ensureCapacity(expected);
+            for (float t = 0; t < warmTime; t += PREWARM_STEP) fogLayer.update(PREWARM_STEP);
+        } else {
+            // Obtain the effects the pool is short of, then give them all back
+            Array<ParticleEffectPool.PooledEffect> spare = new Array<>();
+            for (int i = fog.size() + fogPool.getFree(); i < expected; i++) spare.add(fogPool.obtain());
+            fogPool.freeAll(spare);
+            for (int x = windowX0; x < windowX1; x++) {
+                for (int y = windowY0; y < windowY1; y++) {
+                    int idx = x + y * tileGridW;
+                    for (int i = 0; i < fog.count(idx); i++) {
+                        for (float t = 0; t < warmTime; t += PREWARM_STEP) fog.get(idx, i).update(PREWARM_STEP);
+                    }
+                }
+            }
+        }
+        budget.endFrame(liveFog(), fogLayer != null ? fogLayer.getCapacity() - fogLayer.size() : fogPool.getFree());
     }
 
-    public void updateFogAndDraw(GameCanvas canvas, Vector2 scale, float delta) {
-        // Cache values locally so we don't have to do expensive calculations each loop.
-        float px = playerModel.getX(), py = playerModel.getY(), lightRadius = playerModel.getLightRadius();
+    /**
+     * Updates the fog of the tiles in the camera window: one slice of them, plus the tiles that need it at once.
+     * Call after the camera has been placed for this frame, and before drawFog().
+     *
+     * @param canvas The canvas (for its camera)
+     * @param scale The draw scale
+     */
+    public void updateFog(GameCanvas canvas, Vector2 scale) {
         // Camera pos:
         Vector3 cameraPos = canvas.getCamera().position;
+        updateFog(cameraPos.x, cameraPos.y, canvas.getWidth(), canvas.getHeight(), scale);
+    }
+
+    /** Updates the fog of the camera window around the given camera position (in pixels) */
+    private void updateFog(float cameraX, float cameraY, float viewWidth, float viewHeight, Vector2 scale) {
+        frame++;
         // These are the ratio to translate camera pos to tile pos.
         float ratioX = scale.x * tileSize, ratioY = scale.y * tileSize;
         // Bounds of the camera in tile units. Could be out of bounds on tile map! (e.g. lowX could be -3)
-        int lowX = (int) Math.floor((cameraPos.x - canvas.getWidth() / 2f) / ratioX),
-                highX = (int) Math.floor((cameraPos.x + canvas.getWidth() / 2f) / ratioX),
-                lowY = (int) Math.floor((cameraPos.y - canvas.getHeight() / 2f) / ratioY),
-                highY = (int) Math.floor((cameraPos.y + canvas.getHeight() / 2f) / ratioY);
-        for (int x = 0; x < tileGridW; x++) {
-            for (int y = 0; y < tileGridH; y++) {
-                // If this tile is not in camera, clear its content.
-                if (x < lowX || x >= highX || y < lowY || y >= highY) {
-                    if (fog[x][y] != null) {
-
-                        for (ParticleEffectPool.PooledEffect effect : fog[x][y].fogParticles) {
-                            effect.setDuration(0);
-                            if (effect.isComplete()) {
-                                effect.free();
-                                fog[x][y].fogParticles.removeValue(effect, true);
-                                //This will just remove it from drawing again, it will not automatically remove particles
-                            }
-                        }
-                    }
-                    continue;
+        int lowX = (int) Math.floor((cameraX - viewWidth / 2f) / ratioX),
+                highX = (int) Math.floor((cameraX + viewWidth / 2f) / ratioX),
+                lowY = (int) Math.floor((cameraY - viewHeight / 2f) / ratioY),
+                highY = (int) Math.floor((cameraY + viewHeight / 2f) / ratioY);
+        // Clamp the window to the grid: only its tiles get fog logic this frame
+        int x0 = Math.max(0, lowX), x1 = Math.min(tileGridW, highX),
+                y0 = Math.max(0, lowY), y1 = Math.min(tileGridH, highY);
+        budget.beginFrame(levelModel.screenToTile(playerModel.getX()), levelModel.screenToTile(playerModel.getY()),
+                (int) Math.floor(cameraX / ratioX), (int) Math.floor(cameraY / ratioY));
+        // Tiles that just left the window still hold fog, which must fade out, so start tracking them
+        for (int x = windowX0; x < windowX1; x++) {
+            for (int y = windowY0; y < windowY1; y++) {
+                if (x >= x0 && x < x1 && y >= y0 && y < y1) continue;
+                int idx = x + y * tileGridW;
+                if (!isFogEmpty(idx) && !leftWindow[idx]) {
+                    fadeOut(idx);
+                    leftWindow[idx] = true;
+                    leftWindowTiles.add(idx);
                 }
-                //To prevent drawing on tiles with the player or a wall as well as if its within the light radius
-                if (levelModel.hasWall(x, y) || levelModel.hasTree(x, y)) continue;
-
-                //0.25 accounts for the aligning of the light to show the player's face instead of just the feet.
-                boolean withinLight = (Math.pow((Math.pow((x * tileSize) - (playerModel.getX()), 2) +
-                        Math.pow((y * tileSize) - (playerModel.getY() + 0.25), 2)), 0.5))
-                        <= playerModel.getLightRadius()-(playerModel.getLightRadius()/4);
-
-                Array<ParticleEffectPool.PooledEffect> fogArr;
-                if (withinLight || levelModel.hasPlayer(x, y)) {
-                    if (fog[x][y] != null) {
-                        fogArr = fog[x][y].fogParticles;
-                        for (ParticleEffectPool.PooledEffect effect : fogArr) {
-                            effect.setDuration(0);
-                            effect.free();
-                            fogArr.removeValue(effect, true);
-                        }
-                    }
-                } else {
-                    Iterator<FlareModel> iterator = flareModels.iterator();
-                    while (iterator.hasNext() && !withinLight) {
-                        FlareModel flare = iterator.next();
-                        withinLight = (Math.pow((Math.pow((x * tileSize) - (flare.getX()), 2) +
-                                Math.pow((y * tileSize) - (flare.getY()), 2)), 0.5))
-                                <= flare.getLightRadius()- flare.getLightRadius()/4;
-                    }
-                    if (withinLight) {
-                        if (fog[x][y] != null) {
-                            fogArr = fog[x][y].fogParticles;
-                            for (ParticleEffectPool.PooledEffect effect : fogArr) {
-                                effect.setDuration(0);
-                                effect.free();
-                                fogArr.removeValue(effect, true);
-                            }
-                        }
-                    } else {
-                        Iterator<EnemyModel> enemyIterator = enemyModels.iterator();
-                        while (enemyIterator.hasNext() && !withinLight) {
-                            EnemyModel enemy = enemyIterator.next();
-                            withinLight = (enemy.isActivated()) && (levelModel.screenToTile(enemy.getX()) == x) &&
-                                    (levelModel.screenToTile(enemy.getY()) == y);
-                        }
-                        if (withinLight) {
-                            if (fog[x][y] != null) {
-                                fogArr = fog[x][y].fogParticles;
-                                for (ParticleEffectPool.PooledEffect effect : fogArr) {
-                                    effect.setDuration(0);
-                                    effect.free();
-                                    fogArr.removeValue(effect, true);
-                                    //This will just remove it from drawing again, it will not automatically remove particles
-                                }
-                            }
-                        } else {
-                            if (fog[x][y] == null) {
-                                fog[x][y] = new fogParticle();
-                            }
-                            fogArr = fog[x][y].fogParticles;
-                        if ((fog[x][y].enemies != null || fogArr.size > NUM_FOG_NORMAL)  && !levelModel.hasEnemy(x, y)) {
-                                for (ParticleEffectPool.PooledEffect effect : fogArr) {
-                                    effect.setDuration(0);
-                                    effect.free();
-                                    fogArr.removeValue(effect, true);
-                                }
-                                fog[x][y].enemies = null;
-                                ParticleEffectPool.PooledEffect effect = fogPool.obtain();
-                                effect.reset();
-                            effect.setPosition((levelModel.tileToScreen(x) * scale.x), levelModel.tileToScreen(y) * scale.y);
-                            fog[x][y].fogParticles.add(effect);
-                            }
-                            /*Only make a new fog particle if we do not have enough particles in the array for that tile*/
-                            if (fogArr.size < NUM_FOG_NORMAL || levelModel.hasEnemy(x, y) && fogArr.size < ( levelModel.hasLessFog(x,y) ? NUM_FOG_SHOOTER : NUM_FOG_ENEMIES)) {
-                                for (int i = 0; i < ((levelModel.hasEnemy(x, y) ? levelModel.hasLessFog(x, y) ? NUM_FOG_SHOOTER : NUM_FOG_ENEMIES : NUM_FOG_NORMAL)); i++) {
-                                    ParticleEffectPool.PooledEffect effect = fogPool.obtain();
-                                    effect.reset();
-                                    float incX = levelModel.hasEnemy(x, y) ? (float) ((Math.random() - 0.5) * (levelModel.hasLessFog(x, y) ? NUM_FOG_AROUND_SHOOTERS : NUM_FOG_AROUND_ENEMIES)) : 0;
-                                    float incY = levelModel.hasEnemy(x, y) ? (float) ((Math.random() - 0.5) * (levelModel.hasLessFog(x, y) ? NUM_FOG_AROUND_SHOOTERS : NUM_FOG_AROUND_ENEMIES)) : 0;
-                                    float randomVal = levelModel.hasEnemy(x, y) ? 6.0f : 1.0f;
-                                    float randomX = levelModel.hasEnemy(x, y) ? (float) (((Math.random() - 0.5f)*randomVal))*tileSize : 0;
-                                    float randomY = levelModel.hasEnemy(x, y) ? (float) (((Math.random() - 0.5f)*randomVal))*tileSize : 0;
-                                    effect.setPosition((levelModel.tileToScreen((int) ((x + incX))) + randomX) * scale.x, levelModel.tileToScreen((int) ((y+incY + randomY))) * scale.y);
-                                    fog[x][y].fogParticles.add(effect);
-                                }
-                            }
-                        }
-                    }
+            }
+        }
+        int oldX0 = windowX0, oldX1 = windowX1, oldY0 = windowY0, oldY1 = windowY1;
+        windowX0 = x0;
+        windowX1 = x1;
+        windowY0 = y0;
+        windowY1 = y1;
+        // Stop tracking the tiles that are back in the window or done clearing
+        for (int i = leftWindowTiles.size - 1; i >= 0; i--) {
+            int idx = leftWindowTiles.get(i), x = idx % tileGridW, y = idx / tileGridW;
+            if ((x >= x0 && x < x1 && y >= y0 && y < y1) || isFogEmpty(idx)) {
+                leftWindow[idx] = false;
+                leftWindowTiles.set(i, leftWindowTiles.peek());
+                leftWindowTiles.pop();
+            }
+        }
+        // Tiles that just entered the window
+        for (int x = x0; x < x1; x++) {
+            boolean newColumn = x < oldX0 || x >= oldX1;
+            for (int y = y0; y < y1; y++) {
+                if (!newColumn && y >= oldY0 && y < oldY1) {
+                    y = oldY1 - 1;
+                    continue;
                 }
+                refreshTile(x, y, scale);
+            }
+        }
+        // Tiles a light or a character entered or left
+        refreshTiles(illumination.getChangedTiles(), scale);
+        refreshTiles(levelModel.getChangedTiles(), scale);
+        levelModel.clearChangedTiles();
+        // This frame's slice of the window
+        int sx = slice & 1, sy = slice >> 1;
+        for (int x = x0 + ((x0 & 1) ^ sx); x < x1; x += 2) {
+            for (int y = y0 + ((y0 & 1) ^ sy); y < y1; y += 2) {
+                refreshTile(x, y, scale);
             }
         }
+        slice = (slice + 1) % UPDATE_SLICES;
+    }
+
+    /**
+     * Draws the fog of the camera window, and of the tiles still fading out of it.
+     *
+     * @param canvas The canvas
+     * @param delta Time since the last frame
+     */
+    public void drawFog(GameCanvas canvas, float delta) {
         canvas.begin();
-        canvas.drawFog(fog, delta);
+        if (fogLayer != null) {
+            // Every source is simulated in one pass, then drawn in one batch
+            fogLayer.update(delta);
+            canvas.drawFog(fogLayer);
+        } else {
+            canvas.drawFog(fog, tileGridW, windowX0, windowY0, windowX1, windowY1, leftWindowTiles, delta);
+        }
         canvas.end();
+        budget.endFrame(liveFog(), fogLayer != null ? fogLayer.getCapacity() - fogLayer.size() : fogPool.getFree());
     }
-/**Inner class to represent the fog on one tile
- *fogparticles: An Array of Pooled Effects. Need to use Array as this list's length will vary as things are added/removed
- * */
-    protected class fogParticle {
-        protected Array<ParticleEffectPool.PooledEffect> fogParticles;
-        protected EnemyModel enemies;
 
-        /**Creates a new fogParticle with an empty array*/
-        public fogParticle(){
-            fogParticles = new Array<>();
-            enemies = null;
+    /** Refreshes the listed tiles (by index) that are in the camera window */
+    private void refreshTiles(IntArray tiles, Vector2 scale) {
+        for (int i = 0; i < tiles.size; i++) {
+            int x = tiles.get(i) % tileGridW, y = tiles.get(i) / tileGridW;
+            if (x >= windowX0 && x < windowX1 && y >= windowY0 && y < windowY1) refreshTile(x, y, scale);
+        }
+    }
+
+    /** Moves the fog of a tile in the camera window to the state its light and characters call for */
+    private void refreshTile(int x, int y, Vector2 scale) {
+        int idx = x + y * tileGridW;
+        if (refreshed[idx] == frame) return;
+        refreshed[idx] = frame;
+        //To prevent drawing on tiles with the player or a wall as well as if its within the light radius
+        if (levelModel.hasWall(x, y) || levelModel.hasTree(x, y)) return;
+        // Fog that died out (completed, reclaimed or done clearing) leaves the tile empty
+        if (tileState[idx] != FogState.EMPTY && isFogEmpty(idx)) {
+            tileState[idx] = FogState.EMPTY;
+            denseFog[idx] = 0;
         }
 
+        //The player's, flares' and aggressive enemies' light was rasterized into the illumination grid this tick
+        boolean withinLight = illumination.isLit(x, y);
+
+        if (withinLight || levelModel.hasPlayer(x, y)) {
+            releaseFog(idx);
+            return;
+        }
+        // Fog still clearing from when the tile was off screen is left to finish first
+        if (tileState[idx] == FogState.CLEARING) return;
+        FogState target = !levelModel.hasEnemy(x, y) ? FogState.NORMAL
+                : levelModel.hasLessFog(x, y) ? FogState.SHOOTER_DENSE : FogState.ENEMY_DENSE;
+        switch (tileState[idx]) {
+            case EMPTY:
+                addFog(x, y, target, scale);
+                break;
+            case NORMAL:
+                if (target != FogState.NORMAL) addFog(x, y, target, scale);
+                break;
+            case SHOOTER_DENSE:
+            case ENEMY_DENSE:
+                if (target == FogState.NORMAL) {
+                    // The enemy left: back to plain fog
+                    releaseFog(idx);
+                    addFog(x, y, target, scale);
+                } else if (target == FogState.ENEMY_DENSE || tileState[idx] == FogState.SHOOTER_DENSE) {
+                    // Denser enemy fog, or fog thinned with distance that is now nearer: add what the tile lacks
+                    addFog(x, y, target, scale);
+                }
+                break;
+        }
+    }
+
+    /** Returns the number of fog particles (effects, or FogLayer sources) alive, fading ones included */
+    private int liveFog() {
+        return fogLayer != null ? fogLayer.size() : fog.size();
+    }
+
+    /**
+     * Makes room in the budget for new fog on a tile, reclaiming the fog of less important tiles if needed.
+     *
+     * @param n Number of fog particles to add
+     * @return whether there is room for all of them
+     */
+    private boolean reserveFog(int x, int y, int n) {
+        if (budget.fits(liveFog(), n)) return true;
+        if (!budget.hasSortedCandidates()) {
+            // Tiles fading out of the window go first, then window tiles from the furthest in
+            for (int i = 0; i < leftWindowTiles.size; i++) {
+                int idx = leftWindowTiles.get(i);
+                budget.offer(idx, false, idx % tileGridW, idx / tileGridW);
+            }
+            for (int vx = windowX0; vx < windowX1; vx++) {
+                for (int vy = windowY0; vy < windowY1; vy++) {
+                    if (!isFogEmpty(vx + vy * tileGridW)) budget.offer(vx + vy * tileGridW, true, vx, vy);
+                }
+            }
+            budget.sortCandidates();
+        }
+        while (!budget.fits(liveFog(), n)) {
+            int victim = budget.nextVictim(x, y);
+            if (victim < 0) return false;
+            int before = liveFog();
+            releaseFog(victim);
+            budget.recordEvicted(before - liveFog());
+        }
+        return true;
     }
-}
 
+    /** Returns whether a tile (by index) has no fog left to draw */
+    private boolean isFogEmpty(int tile) {
+        if (fogLayer != null) return fogLayer.isEmpty(tile);
+        return fog.count(tile) == 0;
+    }
+
+    /**
+     * Moves the fog of an unlit tile in the window to a denser state, adding the particles of that state (fewer the
+     * further the tile is from the player and the camera center). Dense fog only adds the sources the tile lacks, so
+     * it also tops up a dense tile whose level of detail went up. The tile keeps its state if there is no room.
+     *
+     * @param target NORMAL, SHOOTER_DENSE or ENEMY_DENSE
+     */
+    private void addFog(int x, int y, FogState target, Vector2 scale) {
+        int idx = x + y * tileGridW;
+        if (target == FogState.NORMAL) {
+            int normalFog = budget.density(x, y, NUM_FOG_NORMAL);
+            if (normalFog == 0 || !reserveFog(x, y, normalFog)) return;
+            for (int i = 0; i < normalFog; i++) {
+                addSource(idx, levelModel.tileToScreen(x) * scale.x, levelModel.tileToScreen(y) * scale.y);
+            }
+        } else {
+            boolean shooter = target == FogState.SHOOTER_DENSE;
+            int enemyFog = budget.density(x, y, shooter ? NUM_FOG_SHOOTER : NUM_FOG_ENEMIES) - denseFog[idx];
+            if (enemyFog > 0 && !reserveFog(x, y, enemyFog)) return;
+            float around = shooter ? NUM_FOG_AROUND_SHOOTERS : NUM_FOG_AROUND_ENEMIES;
+            for (int i = 0; i < enemyFog; i++) {
+                float incX = (float) ((Math.random() - 0.5) * around);
+                float incY = (float) ((Math.random() - 0.5) * around);
+                float randomVal = 6.0f;
+                float randomX = (float) (((Math.random() - 0.5f)*randomVal))*tileSize;
+                float randomY = (float) (((Math.random() - 0.5f)*randomVal))*tileSize;
+                addSource(idx, (levelModel.tileToScreen((int) ((x + incX))) + randomX) * scale.x, levelModel.tileToScreen((int) ((y+incY + randomY))) * scale.y);
+            }
+            denseFog[idx] += Math.max(enemyFog, 0);
+        }
+        tileState[idx] = target;
+    }
+
+    /** Adds a fog source to a tile (by index), at the given position (in pixels) */
+    private void addSource(int tile, float sx, float sy) {
+        if (fogLayer != null) {
+            fogLayer.add(tile, sx, sy);
+            return;
+        }
+        ParticleEffectPool.PooledEffect effect = fogPool.obtain();
+        effect.reset();
+        effect.setPosition(sx, sy);
+        fog.add(tile, effect);
+    }
+
+    /** Removes the fog of a tile (by index) at once, leaving it EMPTY */
+    private void releaseFog(int tile) {
+        if (tileState[tile] == FogState.EMPTY) return;
+        if (fogLayer != null) {
+            fogLayer.clear(tile);
+        } else {
+            fog.clear(tile);
+        }
+        tileState[tile] = FogState.EMPTY;
+        denseFog[tile] = 0;
+    }
+
+    /** Lets the fog of a tile (by index) that left the camera window die out, leaving it CLEARING */
+    private void fadeOut(int tile) {
+        if (fogLayer != null) {
+            fogLayer.fadeOut(tile);
+        } else {
+            fog.fadeOut(tile);
+        }
+        tileState[tile] = FogState.CLEARING;
+        denseFog[tile] = 0;
+    }
+}
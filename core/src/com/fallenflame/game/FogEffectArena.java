@@ -0,0 +1,116 @@
+package com.fallenflame.game;
+
+import com.badlogic.gdx.graphics.g2d.ParticleEffectPool;
+
+/**
+ * The pooled fog effects of every tile, for FogController's EFFECTS renderer.
+ *
+ * Each tile owns a fixed block of slots in one flat array, and its effects fill the front of the block. Adding an
+ * effect appends it, and removing one moves the tile's last effect into its slot, so nothing is ever searched for:
+ * clearing a tile, fading it out or dropping its completed effects costs O(effects on the tile).
+ */
+public class FogEffectArena {
+    /** Slots in each tile's block */
+    private final int slotsPerTile;
+    /** Effects of tile t, in slots t * slotsPerTile to t * slotsPerTile + count[t] - 1 */
+    private final ParticleEffectPool.PooledEffect[] slots;
+    private final int[] count;
+    /** Number of effects in every tile */
+    private int size;
+
+    /**
+     * Creates an empty arena.
+     *
+     * @param tiles Number of tiles
+     * @param slotsPerTile Most effects a tile can hold
+     */
+    public FogEffectArena(int tiles, int slotsPerTile) {
+        this.slotsPerTile = slotsPerTile;
+        slots = new ParticleEffectPool.PooledEffect[tiles * slotsPerTile];
+        count = new int[tiles];
+    }
+
+    /** @return the number of effects in every tile */
+    public int size() { return size; }
+
+    /**
+     * Returns the number of effects of a tile
+     *
+     * @param tile The tile
+     * @return the number of effects
+     */
+    public int count(int tile) { return count[tile]; }
+
+    /**
+     * Returns an effect of a tile
+     *
+     * @param tile The tile
+     * @param i The effect's position on the tile, from 0 to count(tile) - 1
+     * @return the effect
+     */
+    public ParticleEffectPool.PooledEffect get(int tile, int i) { return slots[tile * slotsPerTile + i]; }
+
+    /**
+     * Adds an effect to a tile (which must have room for it)
+     *
+     * @param tile The tile
+     * @param effect The effect
+     */
+    public void add(int tile, ParticleEffectPool.PooledEffect effect) {
+        assert count[tile] < slotsPerTile;
+        slots[tile * slotsPerTile + count[tile]++] = effect;
+        size++;
+    }
+
+    /**
+     * Frees every effect of a tile at once
+     *
+     * @param tile The tile
+     * @return the number of effects freed
+     */
+    public int clear(int tile) {
+        int base = tile * slotsPerTile, n = count[tile];
+        for (int i = 0; i < n; i++) {
+            slots[base + i].free();
+            slots[base + i] = null;
+        }
+        count[tile] = 0;
+        size -= n;
+        return n;
+    }
+
+    /**
+     * Lets every effect of a tile finish: they stop emitting, and complete once their particles die
+     *
+     * @param tile The tile
+     */
+    public void fadeOut(int tile) {
+        int base = tile * slotsPerTile;
+        for (int i = 0; i < count[tile]; i++) {
+            slots[base + i].allowCompletion();
+        }
+    }
+
+    /**
+     * Frees the completed effects of a tile, moving the tile's last effects into their slots
+     *
+     * @param tile The tile
+     * @return the number of effects freed
+     */
+    public int removeCompleted(int tile) {
+        int base = tile * slotsPerTile, n = count[tile];
+        for (int i = 0; i < n; ) {
+            if (slots[base + i].isComplete()) {
+                slots[base + i].free();
+                slots[base + i] = slots[base + --n];
+                slots[base + n] = null;
+            } else {
+                i++;
+            }
+        }
+        int freed = count[tile] - n;
+        count[tile] = n;
+        size -= freed;
+        return freed;
+    }
+}
@@ -0,0 +1,447 @@
+package com.fallenflame.game;
+
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.ParticleEffect;
+import com.badlogic.gdx.graphics.g2d.ParticleEmitter;
+import com.badlogic.gdx.graphics.g2d.Sprite;
+import com.badlogic.gdx.math.MathUtils;
+
+import java.util.Arrays;
+
+/**
+ * Fog drawn as one flat particle system, instead of one ParticleEffect per fog source.
+ *
+ * A fog source stands in for one pooled effect of the fog template (fog2.p). It sits at a point and emits particles
+ * following the template's emitter: its duration, emission rate, particle count, life, offsets, spawn shape, size,
+ * tint, transparency and blending. Sources and their particles live in primitive arrays and are all simulated in one
+ * pass. Every particle shares one sprite and one blend function, so the whole layer goes out as a single batch.
+ * Templates whose particles move or rotate cannot be drawn this way (see supports()).
+ *
+ * Every source belongs to a tile, so FogController can count, clear and fade out the fog of a tile. Sources are kept
+ * dense (a removed source is replaced by the last one), and each tile links its sources by index.
+ */
+public class FogLayer {
+    /** The template's emitter */
+    private final ParticleEmitter emitter;
+    /** The particle sprite, and its size in pixels */
+    private final Sprite sprite;
+    private final float spriteWidth;
+    private final float spriteHeight;
+    /** Most and fewest particles a source has alive at once */
+    private final int maxCount;
+    private final int minCount;
+
+    /** First source of each tile, or -1 */
+    private final int[] tileHead;
+    /** Sources of each tile that are not fading out */
+    private final int[] tileCount;
+
+    /** Number of sources */
+    private int size;
+    /** Position (in pixels), tile and next source of the same tile (-1 at the end), by source */
+    private float[] srcX = new float[16];
+    private float[] srcY = new float[16];
+    private int[] srcTile = new int[16];
+    private int[] srcNext = new int[16];
+    /** Whether a source has stopped emitting, so it goes away once its particles die */
+    private boolean[] ending = new boolean[16];
+    /** Emission state of each source, as ParticleEmitter keeps it (times in milliseconds) */
+    private float[] duration = new float[16];
+    private float[] durationTimer = new float[16];
+    private float[] emissionDelta = new float[16];
+    private float[] emission = new float[16];
+    private float[] emissionDiff = new float[16];
+    /** Particles alive, by source */
+    private int[] active = new int[16];
+
+    /** Particles, maxCount per source (particle k of source s is at s * maxCount + k). A life of 0 marks a free slot */
+    private float[] life;
+    private float[] age;
+    private float[] x;
+    private float[] y;
+    private float[] width;
+    private float[] widthDiff;
+    private float[] height;
+    private float[] heightDiff;
+    private float[] alpha;
+    private float[] alphaDiff;
+
+    /**
+     * Returns whether a fog template can be drawn as a FogLayer: a single emitter with a single sprite, whose
+     * particles neither move nor rotate, spawned at a point, in a square, or inside an ellipse.
+     *
+     * @param template The fog template
+     * @return whether it can
+     */
+    public static boolean supports(ParticleEffect template) {
+        if (template.getEmitters().size != 1) return false;
+        ParticleEmitter e = template.getEmitters().first();
+        if (e.getSprites().size != 1) return false;
+        if (e.getVelocity().isActive() || e.getRotation().isActive() || e.getWind().isActive()
+                || e.getGravity().isActive() || e.getDelay().isActive() || e.getLifeOffset().isActive()) return false;
+        switch (e.getSpawnShape().getShape()) {
+            case point:
+            case square:
+                return true;
+            case ellipse:
+                return !e.getSpawnShape().isEdges();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Creates an empty fog layer.
+     *
+     * @param template The fog template (must be supported, and loaded)
+     * @param tiles Number of tiles the sources belong to
+     */
+    public FogLayer(ParticleEffect template, int tiles) {
+        assert supports(template);
+        emitter = template.getEmitters().first();
+        sprite = emitter.getSprites().first();
+        spriteWidth = sprite.getWidth();
+        spriteHeight = sprite.getHeight();
+        maxCount = Math.max(1, emitter.getMaxParticleCount());
+        minCount = emitter.getMinParticleCount();
+        tileHead = new int[tiles];
+        tileCount = new int[tiles];
+        Arrays.fill(tileHead, -1);
+        allocateParticles(16);
+    }
+
+    /** @return the number of sources, fading ones included */
+    public int size() { return size; }
+
+    /** @return the number of sources there is room for before the arrays grow */
+    public int getCapacity() { return srcX.length; }
+
+    /**
+     * Makes room for the given number of sources, so adding them does not grow the arrays
+     *
+     * @param sources Number of sources
+     */
+    public void ensureCapacity(int sources) {
+        if (sources > srcX.length) grow(sources);
+    }
+
+    /** @return the number of particles alive */
+    public int particleCount() {
+        int n = 0;
+        for (int s = 0; s < size; s++) n += active[s];
+        return n;
+    }
+
+    /**
+     * Returns the number of sources of a tile, not counting those fading out
+     *
+     * @param tile The tile
+     * @return the number of sources
+     */
+    public int count(int tile) { return tileCount[tile]; }
+
+    /**
+     * Returns whether a tile has no sources at all (fading ones included)
+     *
+     * @param tile The tile
+     * @return whether it has none
+     */
+    public boolean isEmpty(int tile) { return tileHead[tile] < 0; }
+
+    /**
+     * Adds a source to a tile. It starts emitting right away, as a freshly reset effect would.
+     *
+     * @param tile The tile
+     * @param px Source x-coor (in pixels)
+     * @param py Source y-coor (in pixels)
+     */
+    public void add(int tile, float px, float py) {
+        if (size == srcX.length) grow(size + 1);
+        int s = size++;
+        srcX[s] = px;
+        srcY[s] = py;
+        srcTile[s] = tile;
+        srcNext[s] = tileHead[tile];
+        tileHead[tile] = s;
+        tileCount[tile]++;
+        ending[s] = false;
+        durationTimer[s] = 0;
+        emissionDelta[s] = 0;
+        active[s] = 0;
+        Arrays.fill(life, s * maxCount, (s + 1) * maxCount, 0);
+        restart(s);
+        emit(s, 1);
+    }
+
+    /**
+     * Removes every source of a tile at once
+     *
+     * @param tile The tile
+     */
+    public void clear(int tile) {
+        while (tileHead[tile] >= 0) remove(tileHead[tile]);
+    }
+
+    /**
+     * Stops the sources of a tile from emitting, so they go away once their particles die
+     *
+     * @param tile The tile
+     * @return whether the tile has no sources left
+     */
+    public boolean fadeOut(int tile) {
+        for (int s = tileHead[tile]; s >= 0; s = srcNext[s]) setEnding(s);
+        return tileHead[tile] < 0;
+    }
+
+    /**
+     * Advances every source and particle.
+     *
+     * @param delta Time since the last update (in seconds)
+     */
+    public void update(float delta) {
+        float millis = delta * 1000;
+        ParticleEmitter.ScaledNumericValue emissionValue = emitter.getEmission();
+        float[] life = this.life, age = this.age;
+        // Backwards, so a removed source is replaced by one that has been updated already
+        for (int s = size - 1; s >= 0; s--) {
+            for (int p = s * maxCount, end = p + maxCount; p < end; p++) {
+                if (life[p] == 0) continue;
+                if ((age[p] += millis) >= life[p]) {
+                    life[p] = 0;
+                    active[s]--;
+                }
+            }
+            if ((durationTimer[s] += millis) >= duration[s]) {
+                if (emitter.isContinuous()) {
+                    durationTimer[s] -= duration[s];
+                    restart(s);
+                } else {
+                    setEnding(s);
+                }
+            }
+            if (!ending[s]) {
+                emissionDelta[s] += millis;
+                // A full source cannot emit, but its emission clock keeps running as ParticleEmitter's does
+                float rate = emission[s] + emissionDiff[s] * emissionValue.getScale(cyclePercent(s));
+                if (rate > 0) {
+                    float period = 1000 / rate;
+                    if (emissionDelta[s] >= period) {
+                        int n = Math.min((int) (emissionDelta[s] / period), maxCount - active[s]);
+                        emissionDelta[s] -= n * period;
+                        emissionDelta[s] %= period;
+                        if (n > 0) emit(s, n);
+                    }
+                }
+                if (active[s] < minCount) emit(s, minCount - active[s]);
+            } else if (active[s] == 0) {
+                remove(s);
+            }
+        }
+    }
+
+    /**
+     * Draws every particle, with the template's sprite and blending.
+     *
+     * @param batch The sprite batch (between begin() and end())
+     */
+    public void draw(Batch batch) {
+        boolean premultiplied = emitter.isPremultipliedAlpha(), additive = emitter.isAdditive();
+        batch.setBlendFunction(premultiplied ? GL20.GL_ONE : GL20.GL_SRC_ALPHA,
+                additive ? GL20.GL_ONE : GL20.GL_ONE_MINUS_SRC_ALPHA);
+        ParticleEmitter.ScaledNumericValue xScale = emitter.getXScale(), yScale = emitter.getYScale();
+        ParticleEmitter.ScaledNumericValue transparency = emitter.getTransparency();
+        ParticleEmitter.GradientColorValue tint = emitter.getTint();
+        for (int p = 0, n = size * maxCount; p < n; p++) {
+            if (life[p] == 0) continue;
+            float percent = age[p] / life[p];
+            float w = width[p] + widthDiff[p] * xScale.getScale(percent);
+            float h = yScale.isActive() ? height[p] + heightDiff[p] * yScale.getScale(percent)
+                    : w * spriteHeight / spriteWidth;
+            float a = alpha[p] + alphaDiff[p] * transparency.getScale(percent);
+            float[] color = tint.getColor(percent);
+            if (premultiplied) {
+                batch.setColor(color[0] * a, color[1] * a, color[2] * a, additive ? 0 : a);
+            } else {
+                batch.setColor(color[0], color[1], color[2], a);
+            }
+            batch.draw(sprite, x[p] - w / 2, y[p] - h / 2, w, h);
+        }
+        batch.setColor(1, 1, 1, 1);
+        batch.setBlendFunction(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+    }
+
+    /** Starts a new emission cycle of a source (ParticleEmitter.restart()) */
+    private void restart(int s) {
+        ParticleEmitter.ScaledNumericValue emissionValue = emitter.getEmission();
+        duration[s] = emitter.getDuration().newLowValue();
+        emission[s] = emissionValue.newLowValue();
+        emissionDiff[s] = emissionValue.newHighValue();
+        if (!emissionValue.isRelative()) emissionDiff[s] -= emission[s];
+    }
+
+    /** Stops a source from emitting */
+    private void setEnding(int s) {
+        if (ending[s]) return;
+        ending[s] = true;
+        tileCount[srcTile[s]]--;
+    }
+
+    /** Activates up to n particles of a source (ParticleEmitter.activateParticle()) */
+    private void emit(int s, int n) {
+        float percent = cyclePercent(s);
+        for (int p = s * maxCount, end = p + maxCount; p < end && n > 0; p++) {
+            if (life[p] != 0) continue;
+            n--;
+            active[s]++;
+
+            ParticleEmitter.ScaledNumericValue v = emitter.getLife();
+            float low = v.newLowValue(), diff = v.newHighValue();
+            if (!v.isRelative()) diff -= low;
+            // Never 0, which marks a free slot
+            life[p] = Math.max(1, low + diff * v.getScale(percent));
+            age[p] = 0;
+
+            v = emitter.getXScale();
+            width[p] = v.newLowValue();
+            widthDiff[p] = v.newHighValue();
+            if (!v.isRelative()) widthDiff[p] -= width[p];
+            v = emitter.getYScale();
+            height[p] = v.newLowValue();
+            heightDiff[p] = v.newHighValue();
+            if (!v.isRelative()) heightDiff[p] -= height[p];
+            v = emitter.getTransparency();
+            alpha[p] = v.newLowValue();
+            alphaDiff[p] = v.newHighValue();
+            if (!v.isRelative()) alphaDiff[p] -= alpha[p];
+
+            float px = srcX[s], py = srcY[s];
+            if (emitter.getXOffsetValue().isActive()) px += emitter.getXOffsetValue().newLowValue();
+            if (emitter.getYOffsetValue().isActive()) py += emitter.getYOffsetValue().newLowValue();
+            v = emitter.getSpawnWidth();
+            float spawnWidth = v.newLowValue(), spawnWidthDiff = v.newHighValue();
+            if (!v.isRelative()) spawnWidthDiff -= spawnWidth;
+            spawnWidth += spawnWidthDiff * v.getScale(percent);
+            v = emitter.getSpawnHeight();
+            float spawnHeight = v.newLowValue(), spawnHeightDiff = v.newHighValue();
+            if (!v.isRelative()) spawnHeightDiff -= spawnHeight;
+            spawnHeight += spawnHeightDiff * v.getScale(percent);
+            switch (emitter.getSpawnShape().getShape()) {
+                case square:
+                    px += MathUtils.random(spawnWidth) - spawnWidth / 2;
+                    py += MathUtils.random(spawnHeight) - spawnHeight / 2;
+                    break;
+                case ellipse: {
+                    float radiusX = spawnWidth / 2, radiusY = spawnHeight / 2;
+                    if (radiusX == 0 || radiusY == 0) break;
+                    // Pick a point in the circle of radius radiusX, then squash it into the ellipse
+                    float scaleY = radiusX / radiusY, radius2 = radiusX * radiusX;
+                    while (true) {
+                        float ox = MathUtils.random(spawnWidth) - radiusX, oy = MathUtils.random(spawnWidth) - radiusX;
+                        if (ox * ox + oy * oy <= radius2) {
+                            px += ox;
+                            py += oy / scaleY;
+                            break;
+                        }
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+            x[p] = px;
+            y[p] = py;
+        }
+    }
+
+    /** Removes a source and its particles. The last source takes its index */
+    private void remove(int s) {
+        int tile = srcTile[s];
+        unlink(s);
+        if (!ending[s]) tileCount[tile]--;
+        int last = --size;
+        if (s == last) return;
+        // Repoint the link to the last source, then move it into the gap
+        int lastTile = srcTile[last];
+        if (tileHead[lastTile] == last) {
+            tileHead[lastTile] = s;
+        } else {
+            int t = tileHead[lastTile];
+            while (srcNext[t] != last) t = srcNext[t];
+            srcNext[t] = s;
+        }
+        srcX[s] = srcX[last];
+        srcY[s] = srcY[last];
+        srcTile[s] = lastTile;
+        srcNext[s] = srcNext[last];
+        ending[s] = ending[last];
+        duration[s] = duration[last];
+        durationTimer[s] = durationTimer[last];
+        emissionDelta[s] = emissionDelta[last];
+        emission[s] = emission[last];
+        emissionDiff[s] = emissionDiff[last];
+        active[s] = active[last];
+        int from = last * maxCount, to = s * maxCount;
+        System.arraycopy(life, from, life, to, maxCount);
+        System.arraycopy(age, from, age, to, maxCount);
+        System.arraycopy(x, from, x, to, maxCount);
+        System.arraycopy(y, from, y, to, maxCount);
+        System.arraycopy(width, from, width, to, maxCount);
+        System.arraycopy(widthDiff, from, widthDiff, to, maxCount);
+        System.arraycopy(height, from, height, to, maxCount);
+        System.arraycopy(heightDiff, from, heightDiff, to, maxCount);
+        System.arraycopy(alpha, from, alpha, to, maxCount);
+        System.arraycopy(alphaDiff, from, alphaDiff, to, maxCount);
+    }
+
+    /** Unlinks a source from its tile's list */
+    private void unlink(int s) {
+        int tile = srcTile[s];
+        if (tileHead[tile] == s) {
+            tileHead[tile] = srcNext[s];
+            return;
+        }
+        int t = tileHead[tile];
+        while (srcNext[t] != s) t = srcNext[t];
+        srcNext[t] = srcNext[s];
+    }
+
+    /** Grows the source arrays to hold at least the given number of sources */
+    private void grow(int sources) {
+        int n = Math.max(srcX.length * 2, sources);
+        srcX = Arrays.copyOf(srcX, n);
+        srcY = Arrays.copyOf(srcY, n);
+        srcTile = Arrays.copyOf(srcTile, n);
+        srcNext = Arrays.copyOf(srcNext, n);
+        ending = Arrays.copyOf(ending, n);
+        duration = Arrays.copyOf(duration, n);
+        durationTimer = Arrays.copyOf(durationTimer, n);
+        emissionDelta = Arrays.copyOf(emissionDelta, n);
+        emission = Arrays.copyOf(emission, n);
+        emissionDiff = Arrays.copyOf(emissionDiff, n);
+        active = Arrays.copyOf(active, n);
+        allocateParticles(n);
+    }
+
+    /** Sizes the particle arrays for the given number of sources, keeping their contents */
+    private void allocateParticles(int sources) {
+        int n = sources * maxCount;
+        life = resize(life, n);
+        age = resize(age, n);
+        x = resize(x, n);
+        y = resize(y, n);
+        width = resize(width, n);
+        widthDiff = resize(widthDiff, n);
+        height = resize(height, n);
+        heightDiff = resize(heightDiff, n);
+        alpha = resize(alpha, n);
+        alphaDiff = resize(alphaDiff, n);
+    }
+
+    private static float[] resize(float[] a, int n) { return a == null ? new float[n] : Arrays.copyOf(a, n); }
+
+    /** Progress of a source through its emission cycle, from 0 to 1 */
+    private float cyclePercent(int s) {
+        return duration[s] > 0 ? Math.min(1, durationTimer[s] / duration[s]) : 1;
+    }
+}
@@ -7,6 +7,7 @@ import com.badlogic.gdx.graphics.g2d.*;
 import com.badlogic.gdx.graphics.glutils.*;
 import com.badlogic.gdx.physics.box2d.*;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
 
 public class GameCanvas {
     /**@author: Professor White */
@@ -886,25 +887,51 @@ public class GameCanvas {
      * @param fog, a PooledEffect 2D array with all fog that needs to be drawn
      * @param delta, frames per second*/
 
-    public void drawFog(FogController.fogParticle[][] fog, float delta){
-            for(int r = 0; r<fog.length; r++){
-                for(int c = 0; c<fog[r].length; c++) {
-                    if (fog[r][c] != null) {
-                        Array<ParticleEffectPool.PooledEffect> fogArr = fog[r][c].fogParticles;
-                        for (ParticleEffectPool.PooledEffect f : fogArr) {
-                            f.draw(spriteBatch, delta);
-                            /*Many tutorials free the particle after it's drawn, so I've tried that here. No idea if
-                            That impacted anything but it works so I've left it in*/
-                            if(f.isComplete()){
-                                f.free();
-                                fogArr.removeValue(f, true);
-                            }
-                        }
-                    }
-                }
+    /**
+     * Draws the fog of a window of tiles, and of the tiles outside it whose fog is still fading out. Effects that
+     * have completed are freed.
+     *
+     * @param fog The fog effects of every tile
+     * @param width Width of the tile grid (tile x, y is fog tile x + y * width)
+     * @param x0 Left column of the window
+     * @param y0 Bottom row of the window
+     * @param x1 Right column of the window (exclusive)
+     * @param y1 Top row of the window (exclusive)
+     * @param fading Tiles outside the window that still have fog
+     * @param delta Time since the last frame
+     */
+    public void drawFog(FogEffectArena fog, int width, int x0, int y0, int x1, int y1, IntArray fading,
+                        float delta) {
+        for (int r = x0; r < x1; r++) {
+            for (int c = y0; c < y1; c++) {
+                drawFogTile(fog, r + c * width, delta);
             }
+        }
+        for (int i = 0; i < fading.size; i++) {
+            drawFogTile(fog, fading.get(i), delta);
+        }
+    }
 
+    /**
+     * Draws a batched fog layer. Its particles share one sprite and one blend function, so they go out together.
+     *
+     * @param fog The fog layer (updated for this frame)
+     */
+    public void drawFog(FogLayer fog) {
+        fog.draw(spriteBatch);
+    }
+
+    /** Draws the fog of one tile, then frees the effects that have completed */
+    private void drawFogTile(FogEffectArena fog, int tile, float delta) {
+        int n = fog.count(tile);
+        if (n == 0) return;
+        for (int i = 0; i < n; i++) {
+            fog.get(tile, i).draw(spriteBatch, delta);
         }
+        /*Many tutorials free the particle after it's drawn, so I've tried that here. No idea if
+        That impacted anything but it works so I've left it in*/
+        fog.removeCompleted(tile);
+    }
 
     /**
      * Transform the given vertices by the affine transform
@@ -0,0 +1,202 @@
+package com.fallenflame.game;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.fallenflame.game.enemies.EnemyModel;
+
+import java.util.Arrays;
+
+/**
+ * Which tiles of a level are lit this tick, and by what.
+ *
+ * The player's light, every flare's light and every activated enemy are rasterized into a per-tile bit set once per
+ * tick, over the tiles of a level model (the fog's). Each disk only visits the tiles in its bounding rectangle, and
+ * tests them with squared distances. The bits come in two kinds:
+ *
+ * - LIT bits use the fog's rule: a tile is lit by a light if its lower left corner is within 3/4 of the light's
+ *   radius (the player's light is centered 0.25 above the player, at the face). An activated enemy lights its tile.
+ * - REACH bits are conservative: a tile has them if any point of it is within the full light radius. They let a
+ *   caller rule a point out in O(1) before the exact test (the AI's withinPlayerLight() and withinFlareRange()).
+ *
+ * Tiles are cleared by stamping them with the tick that set them, so an update only touches the lit tiles. The
+ * tiles whose LIT bits turned on or off are listed too (getChangedTiles()), so the fog can react to a moving light
+ * without rescanning every tile.
+ */
+public class IlluminationGrid {
+    /** Tile corner is in the player's light (fog rule) */
+    public static final int PLAYER_LIGHT = 1;
+    /** Tile corner is in a flare's light (fog rule) */
+    public static final int FLARE_LIGHT = 1 << 1;
+    /** Tile holds an activated enemy */
+    public static final int ENEMY_LIGHT = 1 << 2;
+    /** Some point of the tile is within the player's light radius (around the player's texture position) */
+    public static final int PLAYER_REACH = 1 << 3;
+    /** Some point of the tile is within a flare's light radius */
+    public static final int FLARE_REACH = 1 << 4;
+    /** Any bit that clears fog */
+    public static final int LIT = PLAYER_LIGHT | FLARE_LIGHT | ENEMY_LIGHT;
+
+    /** Offset of the player's light from the player's position (so it shows the face instead of just the feet) */
+    private static final float PLAYER_LIGHT_OFFSET = 0.25f;
+    /** Fraction of a light's radius that clears fog */
+    private static final float FOG_CLEAR_RATIO = 0.75f;
+    /** Slack added to REACH disks so float rounding never makes them miss a point the exact test accepts */
+    private static final float REACH_EPSILON = 1e-3f;
+
+    /** Level model whose tiles are lit */
+    private final LevelModel levelModel;
+    private final float tileSize;
+    private final int width;
+    private final int height;
+    /** Light bits of each tile (by x + y * width); only valid if the tile's stamp is the current tick */
+    private final byte[] bits;
+    private final int[] stamp;
+    /** Number of update() calls */
+    private int tick;
+    /** Tiles with a LIT bit this tick and the last one, and the last tick each tile had one */
+    private IntArray litTiles = new IntArray();
+    private IntArray lastLitTiles = new IntArray();
+    private final int[] litTick;
+    /** Tiles whose LIT bits turned on or off this tick */
+    private final IntArray changedTiles = new IntArray();
+
+    /**
+     * Creates an unlit grid over the tiles of a level model.
+     *
+     * @param levelModel The level model (must be initialized)
+     */
+    public IlluminationGrid(LevelModel levelModel) {
+        this.levelModel = levelModel;
+        tileSize = levelModel.getTileSize();
+        width = levelModel.getTileGridWidth();
+        height = levelModel.getTileGridHeight();
+        bits = new byte[width * height];
+        stamp = new int[width * height];
+        litTick = new int[width * height];
+        Arrays.fill(litTick, -1);
+    }
+
+    /**
+     * Rasterizes this tick's lights. Call after the physics step, once the player's light radius is set.
+     *
+     * @param player The player
+     * @param flares The level's flare index
+     * @param enemies The level's enemy index
+     */
+    public void update(PlayerModel player, SpatialHash<FlareModel> flares, SpatialHash<EnemyModel> enemies) {
+        tick++;
+        IntArray swap = lastLitTiles;
+        lastLitTiles = litTiles;
+        litTiles = swap;
+        litTiles.clear();
+        changedTiles.clear();
+        float r = player.getLightRadius();
+        stampCorners(player.getX(), player.getY() + PLAYER_LIGHT_OFFSET, r * FOG_CLEAR_RATIO, PLAYER_LIGHT);
+        stampTiles(player.getTextureX(), player.getTextureY(), r, PLAYER_REACH);
+        for (int i = 0; i < flares.size(); i++) {
+            FlareModel flare = flares.get(i);
+            float fr = flare.getLightRadius();
+            stampCorners(flare.getX(), flare.getY(), fr * FOG_CLEAR_RATIO, FLARE_LIGHT);
+            stampTiles(flare.getX(), flare.getY(), fr, FLARE_REACH);
+        }
+        for (int i = 0; i < enemies.size(); i++) {
+            EnemyModel enemy = enemies.get(i);
+            if (!enemy.isActivated()) continue;
+            int x = levelModel.screenToTile(enemy.getX()), y = levelModel.screenToTile(enemy.getY());
+            if (x >= 0 && x < width && y >= 0 && y < height) set(x + y * width, ENEMY_LIGHT);
+        }
+        // Tiles lit last tick but not this one went dark
+        for (int i = 0; i < lastLitTiles.size; i++) {
+            if (litTick[lastLitTiles.get(i)] != tick) changedTiles.add(lastLitTiles.get(i));
+        }
+    }
+
+    /**
+     * Returns the light bits of a tile
+     *
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @return the bits set this tick (0 if the tile is dark or off the grid)
+     */
+    public int getBits(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) return 0;
+        int i = x + y * width;
+        return stamp[i] == tick ? bits[i] : 0;
+    }
+
+    /**
+     * Returns the tiles whose LIT bits turned on or off in the last update (each listed once, by x + y * width)
+     *
+     * @return the changed tiles
+     */
+    public IntArray getChangedTiles() { return changedTiles; }
+
+    /** Returns whether a tile is lit, so it should have no fog */
+    public boolean isLit(int x, int y) { return (getBits(x, y) & LIT) != 0; }
+
+    /**
+     * Returns whether a point might be within the player's light radius. If not, it certainly is not.
+     *
+     * @param x Screen x-coor
+     * @param y Screen y-coor
+     * @return false only if the point is out of the player's light (points off the grid are never ruled out)
+     */
+    public boolean mayReachPlayerLight(float x, float y) { return mayReach(x, y, PLAYER_REACH); }
+
+    /**
+     * Returns whether a point might be within some flare's light radius. If not, it certainly is not.
+     *
+     * @param x Screen x-coor
+     * @param y Screen y-coor
+     * @return false only if the point is out of every flare's light (points off the grid are never ruled out)
+     */
+    public boolean mayReachFlareLight(float x, float y) { return mayReach(x, y, FLARE_REACH); }
+
+    private boolean mayReach(float x, float y, int bit) {
+        int tx = levelModel.screenToTile(x), ty = levelModel.screenToTile(y);
+        if (x < 0 || y < 0 || tx >= width || ty >= height) return true;
+        return (getBits(tx, ty) & bit) != 0;
+    }
+
+    /** Sets a bit on the tiles whose lower left corner is within the disk */
+    private void stampCorners(float cx, float cy, float r, int bit) {
+        int x0 = Math.max(0, (int) Math.ceil((cx - r) / tileSize)), x1 = Math.min(width - 1, (int) Math.floor((cx + r) / tileSize));
+        int y0 = Math.max(0, (int) Math.ceil((cy - r) / tileSize)), y1 = Math.min(height - 1, (int) Math.floor((cy + r) / tileSize));
+        double r2 = (double) r * r;
+        for (int y = y0; y <= y1; y++) {
+            double dy = y * tileSize - cy;
+            for (int x = x0; x <= x1; x++) {
+                double dx = x * tileSize - cx;
+                if (dx * dx + dy * dy <= r2) set(x + y * width, bit);
+            }
+        }
+    }
+
+    /** Sets a bit on the tiles that overlap the disk */
+    private void stampTiles(float cx, float cy, float r, int bit) {
+        r += REACH_EPSILON;
+        int x0 = Math.max(0, (int) Math.floor((cx - r) / tileSize)), x1 = Math.min(width - 1, (int) Math.floor((cx + r) / tileSize));
+        int y0 = Math.max(0, (int) Math.floor((cy - r) / tileSize)), y1 = Math.min(height - 1, (int) Math.floor((cy + r) / tileSize));
+        double r2 = (double) r * r;
+        for (int y = y0; y <= y1; y++) {
+            // Distance from the center to the nearest point of the tile
+            double dy = Math.max(0, Math.max(y * tileSize - cy, cy - (y + 1) * tileSize));
+            for (int x = x0; x <= x1; x++) {
+                double dx = Math.max(0, Math.max(x * tileSize - cx, cx - (x + 1) * tileSize));
+                if (dx * dx + dy * dy <= r2) set(x + y * width, bit);
+            }
+        }
+    }
+
+    private void set(int i, int bit) {
+        if (stamp[i] != tick) {
+            stamp[i] = tick;
+            bits[i] = 0;
+        }
+        bits[i] |= bit;
+        if ((bit & LIT) != 0 && litTick[i] != tick) {
+            if (litTick[i] != tick - 1) changedTiles.add(i);
+            litTick[i] = tick;
+            litTiles.add(i);
+        }
+    }
+}
@@ -14,10 +14,12 @@ import com.fallenflame.game.physics.obstacle.Obstacle;
 import com.fallenflame.game.util.BGMController;
 import com.fallenflame.game.util.JsonAssetManager;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /** Credit to Walker White for some code reused from B2LightsDemo */
 public class LevelController implements ContactListener {
@@ -55,9 +57,25 @@ public class LevelController implements ContactListener {
     /** Volume for player flare sounds */
     public static final float PLAYER_FLARE_VOL = .4f;
 
+    /** Number of AI controllers at which their path planning is spread over the fork/join pool */
+    public static final int PARALLEL_AI_THRESHOLD = 8;
+    /** Time (in microseconds) the AI may spend re-planning per tick */
+    public static final long AI_BUDGET_MICROS = 2000L;
+    /**
+     * Path grid tile count above which enemies plan hierarchically (HPA*) by default. The largest shipped level
+     * (ronnie-maze-level, 64x64 tiles) is exactly at the cutoff and keeps BFS; only larger custom maps switch.
+     */
+    public static final int HPA_MIN_TILES = 64 * 64;
+    /** Time (in nanoseconds) the time-sliced path planner may search per tick */
+    public static final long PATH_PLANNING_BUDGET = 1000000L;
+
     // Level model grid constants
     public static final float PATH_GRID_SIZE = .6f;
     public static final float FOG_GRID_SIZE = .4f;
+    /** Cell size of the occupancy grid shared by the path and fog grids (both sizes are multiples of it) */
+    public static final float OCCUPANCY_GRID_SIZE = .2f;
+    /** Cell size of the spatial indexes of moving entities (a little under a flare's light radius) */
+    public static final float ENTITY_CELL_SIZE = 2f;
 
     /** Whether or not the level has been populated */
     private boolean populated;
@@ -85,10 +103,21 @@ public class LevelController implements ContactListener {
     private List<ExtraModel> extras;
     /** Reference to continuing player-item contacts */
     private HashSet<ItemModel> itemContacts;
+    /** Spatial indexes of the enemies (body disks), flares, fireballs and items (light disks), rebuilt after each
+     * physics step and kept in step with the lists above until the next one */
+    private SpatialHash<EnemyModel> enemyIndex;
+    private SpatialHash<FlareModel> flareIndex;
+    private SpatialHash<FireballModel> fireballIndex;
+    private SpatialHash<ItemModel> itemIndex;
     /** Level Model for AI Pathfinding */
     private LevelModel pathLevelModel;
     /** Level Model for fog */
     private LevelModel fogLevelModel;
+    /** Occupancy (walls, trees, characters) of the level, rasterized once for both level models */
+    private OccupancyGrid occupancyGrid;
+    /** Tiles (of the fog level model) lit by the player, flares and aggressive enemies, rasterized once per tick for
+     * the fog and the AI */
+    private IlluminationGrid illumination;
 
     // JSON data (for objects created after population)
     /** Flare JSONValue */
@@ -159,7 +188,19 @@ public class LevelController implements ContactListener {
     // Controllers
     private final LightController lightController;
     private final List<AIController> AIControllers;
+    /** Control codes returned by AIControllers this tick, indexed like AIControllers */
+    private int[] ctrlCodes;
+    /** Whether each of the AIControllers is re-planning this tick */
+    private boolean[] replanning;
+    /** Chooses which AIControllers re-plan each tick, within AI_BUDGET_MICROS */
+    private final AIScheduler aiScheduler;
+    /** Level-wide abstract graph for HPA controllers */
+    private ClusterGraph clusterGraph;
+    /** Level-wide time-sliced path planner for GDX_AI controllers */
+    private TimeSlicedPathPlanner slicedPlanner;
     private final FogController fogController;
+    /** Cap and level of detail of the fog, and its particle counts for the debug overlay */
+    private FogBudget fogBudget;
     private final TextController textController;
 
     // BGM
@@ -374,14 +415,17 @@ public class LevelController implements ContactListener {
         levelState = LevelState.IN_PROGRESS;
         // Controllers
         lightController = new LightController();
-        AIControllers = new LinkedList<>();
+        AIControllers = new ArrayList<>();
+        ctrlCodes = new int[0];
+        replanning = new boolean[0];
+        aiScheduler = new AIScheduler(AI_BUDGET_MICROS);
         fogController = new FogController();
         textController = new TextController();
         // Models
         walls = new LinkedList<>();
         trees = new LinkedList<>();
         enemies = new LinkedList<>();
-        flares = new LinkedList<>();
+        flares = new ArrayList<>(); // indexed by AI controllers every tick
         fireballs = new LinkedList<>();
         pathLevelModel = new LevelModel();
         fogLevelModel = new LevelModel();
@@ -403,6 +447,10 @@ public class LevelController implements ContactListener {
         world = new World(Vector2.Zero,false);
         bounds = new Rectangle(0,0,pSize[0],pSize[1]);
         scale.x = scale.y = 50;
+        enemyIndex = new SpatialHash<>(bounds, ENTITY_CELL_SIZE);
+        flareIndex = new SpatialHash<>(bounds, ENTITY_CELL_SIZE);
+        fireballIndex = new SpatialHash<>(bounds, ENTITY_CELL_SIZE);
+        itemIndex = new SpatialHash<>(bounds, ENTITY_CELL_SIZE);
 
         String key = globalJson.get("background").get("texture").asString();
         if (levelJson.get("background").has("texture"))
@@ -496,6 +544,11 @@ public class LevelController implements ContactListener {
         // Create enemies
         int enemyID = 0;
         JsonValue globalEnemies = globalJson.get("enemies");
+        // Widest enemy that plans paths, so the path grid keeps them all out of gaps they do not fit through
+        float pathRadius = 0;
+        // Enemies on large levels plan hierarchically unless the level picks a planner for them
+        boolean largeLevel = Math.ceil(bounds.getWidth() / PATH_GRID_SIZE)
+                * Math.ceil(bounds.getHeight() / PATH_GRID_SIZE) > HPA_MIN_TILES;
         for(JsonValue enemyJSON : levelJson.get("enemies")) {
             String enemyType = enemyJSON.get("enemytype").asString();
             // Initialize Enemy Model
@@ -518,6 +571,7 @@ public class LevelController implements ContactListener {
             enemies.add(enemy);
             // Initialize AIController
             if(enemyType.equals("typeA")) {
+                pathRadius = Math.max(pathRadius, enemy.getRadius());
                 // If subtype pathing, give pathCoors as input as well
                 if(enemyJSON.has("subtype") && enemyJSON.get("subtype").asString().equals("pathing"))
                     AIControllers.add(new AITypeAController(enemyID, pathLevelModel, enemies, player, flares, enemyJSON.get("pathCoors")));
@@ -531,6 +585,18 @@ public class LevelController implements ContactListener {
                 Gdx.app.error("LevelController", "Enemy type without AIController", new IllegalArgumentException());
                 return;
             }
+            // Optional path planner override ("bfs", "astar", "gdx_ai" or "hpa"), per enemy or for the whole level
+            JsonValue plannerJSON = enemyJSON.has("planner") ? enemyJSON.get("planner") : levelJson.get("planner");
+            AIController.PlannerType planner = largeLevel ? AIController.PlannerType.HPA : null;
+            if(plannerJSON != null) {
+                try {
+                    planner = AIController.PlannerType.valueOf(plannerJSON.asString().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    Gdx.app.error("LevelController", "Unknown path planner " + plannerJSON.asString()
+                            + ", keeping the default", e);
+                }
+            }
+            if(planner != null) AIControllers.get(AIControllers.size() - 1).setPlannerType(planner);
 
             enemyID++;
             assert inBounds(enemy);
@@ -574,10 +640,45 @@ public class LevelController implements ContactListener {
         bgm = levelJson.has("bgm") ? levelJson.get("bgm").asString() : null;
 
         // Initialize levelModel, lightController, and fogController
-        pathLevelModel.initialize(bounds, walls, trees, enemies, PATH_GRID_SIZE);
-        fogLevelModel.initialize(bounds, walls, trees, enemies, FOG_GRID_SIZE);
+        occupancyGrid = new OccupancyGrid(bounds, walls, trees, OCCUPANCY_GRID_SIZE);
+        pathLevelModel.initialize(occupancyGrid, PATH_GRID_SIZE);
+        pathLevelModel.setAgentRadius(pathRadius);
+        clusterGraph = new ClusterGraph(pathLevelModel, ClusterGraph.DEFAULT_CLUSTER_SIZE);
+        slicedPlanner = new TimeSlicedPathPlanner(pathLevelModel);
+        // Patrol routes are looked up from tables built once here, on the static wall and tree grid
+        PatrolRoutes patrolRoutes = new PatrolRoutes(pathLevelModel);
+        for(AIController c : AIControllers) {
+            c.setPatrolRoutes(patrolRoutes);
+            c.setFlareIndex(flareIndex);
+            c.setClusterGraph(clusterGraph);
+            c.setSlicedPlanner(slicedPlanner);
+        }
+        fogLevelModel.initialize(occupancyGrid, FOG_GRID_SIZE);
+        illumination = new IlluminationGrid(fogLevelModel);
+        for(AIController c : AIControllers) {
+            c.setIllumination(illumination);
+        }
         lightController.initialize(player, exit, levelJson.get("lighting"), world, bounds, scale);
-        fogController.initialize(fogTemplate, fogLevelModel, player, flares, enemies);
+        // Fog is drawn as per-tile effects unless the level asks for batched particles ("effects" or "batched")
+        String fogRendererName = levelJson.has("fogrenderer") ? levelJson.get("fogrenderer").asString()
+                : globalJson.get("fogrenderer").asString();
+        FogController.FogRenderer fogRenderer;
+        try {
+            fogRenderer = FogController.FogRenderer.valueOf(fogRendererName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Gdx.app.error("LevelController", "Unknown fog renderer " + fogRendererName + ", drawing fog as effects", e);
+            fogRenderer = FogController.FogRenderer.EFFECTS;
+        }
+        // Hard cap on live fog particles (forest levels may lower it)
+        fogBudget = new FogBudget(levelJson.has("fogbudget") ? levelJson.get("fogbudget").asInt()
+                : globalJson.get("fogbudget").asInt());
+        fogController.initialize(fogTemplate, fogLevelModel, player, illumination, fogRenderer, fogBudget);
+        // Stamp and light the level as the first tick will, so the first frame's fog is built (and aged) now
+        indexEntities();
+        occupancyGrid.update(player, enemies);
+        illumination.update(player, flareIndex, enemyIndex);
+        fogController.prewarm(player.getX() * scale.x, player.getY() * scale.y,
+                Gdx.graphics.getWidth(), Gdx.graphics.getHeight(), scale, enemies.size());
 
         JsonValue ghostSpawn = globalJson.get("ghost-spawn");
         ghostSpawnOffset = new Vector2(ghostSpawn.get("offset").get("x").asFloat(),
@@ -677,6 +778,7 @@ public class LevelController implements ContactListener {
         // If updating fails for whatever reason (which it should never)
         // just give up already.
         if(player.isAlive() && !fixedStep(dt)) return;
+        indexEntities();
 
         // Update player. This is always necessary even if dying cos it
         // updates the texture.
@@ -700,7 +802,8 @@ public class LevelController implements ContactListener {
             if(player.isWinning()) player.setLightRadiusSprint(); //increase light radius to see fire buddy
             else player.setLightRadiusWalk();
 
-            lightController.updateLights(flares, enemies, fireballs, items);
+            illumination.update(player, flareIndex, enemyIndex);
+            lightController.updateLights(flareIndex, enemyIndex, fireballIndex, itemIndex);
             return;
         }
 
@@ -721,19 +824,46 @@ public class LevelController implements ContactListener {
             }
         }
 
-        // Get Enemy Actions
-        Iterator<AIController> ctrlI = AIControllers.iterator();
-        LinkedList<Integer> ctrlCodes = new LinkedList();
-        while(ctrlI.hasNext()){
-            AIController ctrl = ctrlI.next();
-            ctrlCodes.add(ctrl.getAction());
+        // Light up the tiles the AI and the fog test this tick
+        illumination.update(player, flareIndex, enemyIndex);
+
+        // Rebuild the HPA* graph if walls or trees changed (it is read by controllers planning in parallel below)
+        clusterGraph.refresh();
+        // Root the shared chase flow field at the player (rebuilt only when the player changes tile)
+        pathLevelModel.updateFlowField(pathLevelModel.screenToTile(player.getX()),
+                pathLevelModel.screenToTile(player.getY()));
+
+        // Get Enemy Actions (into reused arrays so steady-state AI ticks do not allocate)
+        int numControllers = AIControllers.size();
+        if(ctrlCodes.length < numControllers) {
+            ctrlCodes = new int[numControllers];
+            replanning = new boolean[numControllers];
+        }
+        // Pick the re-plans that fit this tick's budget; FSM updates touch physics bodies, so they run here in
+        // enemy order
+        aiScheduler.schedule(AIControllers, replanning);
+        for(int c = 0; c < numControllers; c++){
+            if(replanning[c]) AIControllers.get(c).updateState();
+        }
+        // Path planning only reads shared state, so with enough enemies it is spread across cores
+        if(numControllers >= PARALLEL_AI_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(new AIPlanTask(AIControllers, replanning, 0, numControllers));
+        } else {
+            for(int c = 0; c < numControllers; c++){
+                if(replanning[c]) AIControllers.get(c).updateMove();
+            }
+        }
+        // Advance queued GDX_AI searches; controllers pick up finished paths the next time they re-plan
+        slicedPlanner.run(PATH_PLANNING_BUDGET);
+        for(int c = 0; c < numControllers; c++){
+            ctrlCodes[c] = AIControllers.get(c).getCurrentAction();
         }
         // Execute Enemy Actions
         Iterator<EnemyModel> enemyI = enemies.iterator();
-        Iterator<Integer> actionI = ctrlCodes.iterator();
+        int actionIndex = 0;
         while(enemyI.hasNext()){
             EnemyModel enemy = enemyI.next();
-            int action = actionI.next();
+            int action = ctrlCodes[actionIndex++];
             enemy.executeMovementAction(action);
             // Check if enemy is firing, for now only supports EnemyTypeBModel. TODO: Will need to rework if more firing enemies
             boolean firing = (action & EnemyModel.CONTROL_FIRE) != 0;
@@ -770,6 +900,7 @@ public class LevelController implements ContactListener {
                 flare.deactivatePhysics(world);
                 flare.dispose();
                 i.remove();
+                flareIndex.remove(flare);
             }
             else {
                 flare.update(dt);
@@ -783,6 +914,7 @@ public class LevelController implements ContactListener {
                 f.deactivatePhysics(world);
                 f.dispose();
                 ii.remove();
+                fireballIndex.remove(f);
             }
         }
 
@@ -805,6 +937,7 @@ public class LevelController implements ContactListener {
                 it.deactivatePhysics(world);
                 it.dispose();
                 iii.remove();
+                itemIndex.remove(it);
             }
         }
 
@@ -819,12 +952,13 @@ public class LevelController implements ContactListener {
             BGMController.startBGM(ghostJSON.get("bgm").asString());
         }
 
-        // Update level model.
-        pathLevelModel.update(player, enemies);
-        fogLevelModel.update(player, enemies);
+        // Update level model. Characters are stamped once, into the occupancy grid both level models view
+        occupancyGrid.update(player, enemies);
+        pathLevelModel.update();
+        fogLevelModel.update();
 
         // Update lights
-        lightController.updateLights(flares, enemies, fireballs, items);
+        lightController.updateLights(flareIndex, enemyIndex, fireballIndex, itemIndex);
     }
 
 
@@ -837,6 +971,28 @@ public class LevelController implements ContactListener {
         }
     }
 
+    /**
+     * Rebuilds the spatial indexes of the enemies, flares, fireballs and items from their current positions.
+     */
+    private void indexEntities() {
+        enemyIndex.clear();
+        for(EnemyModel enemy : enemies) {
+            enemyIndex.insert(enemy, enemy.getX(), enemy.getY(), enemy.getRadius());
+        }
+        flareIndex.clear();
+        for(FlareModel flare : flares) {
+            flareIndex.insert(flare, flare.getX(), flare.getY(), flare.getLightRadius());
+        }
+        fireballIndex.clear();
+        for(FireballModel fireball : fireballs) {
+            fireballIndex.insert(fireball, fireball.getX(), fireball.getY(), fireball.getLightRadius());
+        }
+        itemIndex.clear();
+        for(ItemModel item : items) {
+            itemIndex.insert(item, item.getX(), item.getY(), item.getLightRadius());
+        }
+    }
+
     /**
      * Fixes the physics frame rate to be in sync with the animation framerate
      *
@@ -873,8 +1029,11 @@ public class LevelController implements ContactListener {
         ghost.setDrawScale(scale);
         ghost.activatePhysics(world);
         enemies.add(ghost);
+        enemyIndex.insert(ghost, ghost.getX(), ghost.getY(), ghost.getRadius());
         // Create ghost controller
         AIControllers.add(new AIGhostController(enemies.size()-1, pathLevelModel, enemies, player));
+        AIControllers.get(AIControllers.size() - 1).setClusterGraph(clusterGraph);
+        AIControllers.get(AIControllers.size() - 1).setSlicedPlanner(slicedPlanner);
     }
 
     /**
@@ -923,6 +1082,7 @@ public class LevelController implements ContactListener {
             flare.applyInitialForce(angleRad, force);
             flare.getShotSound().play(PLAYER_FLARE_VOL);
             flares.add(flare);
+            flareIndex.insert(flare, flare.getX(), flare.getY(), flare.getLightRadius());
             assert inBounds(flare);
             player.decFlareCount();
         }
@@ -942,6 +1102,7 @@ public class LevelController implements ContactListener {
         posDif.setLength(fireball.getSpeed());
         fireball.setLinearVelocity(posDif);
         fireballs.add(fireball);
+        fireballIndex.insert(fireball, fireball.getX(), fireball.getY(), fireball.getLightRadius());
         enemy.coolDown(false);
         assert inBounds(fireball);
     }
@@ -1021,7 +1182,8 @@ public class LevelController implements ContactListener {
 
         lightController.setDebug(debug2);
         lightController.draw();
-        fogController.updateFogAndDraw(canvas, scale, delta);
+        fogController.updateFog(canvas, scale);
+        fogController.drawFog(canvas, delta);
 
         drawPowerMeter(canvas);
         drawFlares(canvas);
@@ -1060,6 +1222,14 @@ public class LevelController implements ContactListener {
             displayFont.setColor(Color.CYAN);
             canvas.begin();
             canvas.drawText(Float.toString(fps), displayFont, 0, canvas.getHeight()/2);
+            canvas.drawText("AI " + aiScheduler.getReplanned() + " planned, " + aiScheduler.getDeferred()
+                    + " deferred (" + aiScheduler.getTotalDeferred() + " total, " + aiScheduler.getTotalSkipped()
+                    + " skipped)", displayFont, 0, canvas.getHeight()/2 - displayFont.getLineHeight());
+            canvas.drawText("Fog " + fogBudget.getLive() + "/" + fogBudget.getMaxLive() + " live, "
+                    + fogBudget.getPooled() + " pooled, " + fogBudget.getEvicted() + " evicted",
+                    displayFont, 0, canvas.getHeight()/2 - 2 * displayFont.getLineHeight());
+            canvas.drawText("Light rays " + lightController.getRayCount(),
+                    displayFont, 0, canvas.getHeight()/2 - 3 * displayFont.getLineHeight());
             canvas.end();
             ticks++;
         } else if (debug == 2) {
@@ -2,45 +2,141 @@ package com.fallenflame.game;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.math.*;
-import com.fallenflame.game.enemies.EnemyGhostModel;
+import com.badlogic.gdx.utils.IntArray;
 import com.fallenflame.game.enemies.EnemyModel;
-import com.fallenflame.game.enemies.EnemyTypeBModel;
-import com.fallenflame.game.physics.obstacle.BoxObstacle;
-import com.fallenflame.game.physics.obstacle.WheelObstacle;
 
 import java.util.*;
 
 public class LevelModel {
 
-    public static class Tile {
-        /** Is this a goal tiles */
-        public boolean goal = false;
-        /** Has this tile been visited by pathfinding? */
-        public boolean visited = false;
-        /** Has wall? */
-        public boolean wall = false;
-        /** Has tree? */
-        public boolean tree = false;
-        /** Has enemy? */
-        public boolean enemy = false;
-        /** Has player? */
-        public boolean player = false;
-
-        /**Has shooter or ghost enemy (for fog) */
-        public boolean hasLessFog = false;
-
-        /**Is the enemy patrolling (for fog) */
-        public boolean isPatrolling = false;
+    // Tile flag bits (see tiles)
+    private static final byte WALL = OccupancyGrid.WALL;
+    private static final byte TREE = OccupancyGrid.TREE;
+    private static final byte ENEMY = OccupancyGrid.ENEMY;
+    private static final byte PLAYER = OccupancyGrid.PLAYER;
+    private static final byte LESS_FOG = OccupancyGrid.LESS_FOG;
+    /** Flags that block movement */
+    private static final byte BLOCKED = WALL | TREE;
+    /** Set on tiles with too little clearance for the level's widest pathing enemy (see setAgentRadius()) */
+    private static final byte NARROW = 1 << OccupancyGrid.NUM_FLAGS;
+    /** Flags that keep enemies off a tile */
+    private static final byte UNWALKABLE = BLOCKED | NARROW;
 
-    }
+    /**
+     * Scratch space for one grid search.
+     *
+     * Visited and goal marks are generation stamps in flat arrays indexed by x + y * grid width, so clearing them
+     * for a new search only bumps a counter. The frontier is a preallocated ring buffer of packed entries, each
+     * holding a tile index and a 3-bit move code, so a search does not allocate.
+     */
+    public static class SearchScratch {
+        /** Generation in which each tile was last visited */
+        private final int[] visited;
+        /** Generation in which each tile was last marked as a goal */
+        private final int[] goal;
+        /** Current generation; a tile is marked iff its stamp equals this */
+        private int generation;
+        /** Ring buffer of packed frontier entries (tile index << 3 | move) */
+        private final int[] frontier;
+        /** frontier.length - 1 (the length is a power of two) */
+        private final int frontierMask;
+        /** Read and write positions in the frontier */
+        private int head;
+        private int tail;
+
+        /** @return the number of tiles this scratch covers */
+        public int size() { return visited.length; }
+
+        private SearchScratch(int tileCount) {
+            visited = new int[tileCount];
+            goal = new int[tileCount];
+            generation = 1;
+            int capacity = Integer.highestOneBit(Math.max(tileCount, 1) * 2 - 1);
+            frontier = new int[capacity];
+            frontierMask = capacity - 1;
+        }
 
-    private enum TileOccupiedBy {
-        WALL, ENEMY, PLAYER, TREE
-    }
+        /** Clears all visited and goal marks and empties the frontier in O(1) */
+        public void clear() {
+            head = tail = 0;
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                Arrays.fill(goal, 0);
+                generation = 1;
+            }
+        }
+
+        /** @return whether the tile index has been visited since the last clear() */
+        public boolean isVisited(int idx) { return visited[idx] == generation; }
+
+        /** Marks the tile index as visited until the next clear() */
+        public void setVisited(int idx) { visited[idx] = generation; }
+
+        /** @return whether the tile index is a goal since the last clear() */
+        public boolean isGoal(int idx) { return goal[idx] == generation; }
 
+        /** Marks the tile index as a goal until the next clear() */
+        public void setGoal(int idx) { goal[idx] = generation; }
 
-    /** 2D tile representation of board where TRUE indicates tile is available for movement*/
-    private Tile[][] tileGrid;
+        /** @return whether the frontier is empty */
+        public boolean isFrontierEmpty() { return head == tail; }
+
+        /**
+         * Appends a tile to the back of the frontier.
+         *
+         * @param idx Tile index
+         * @param move Move code in [0, 8)
+         */
+        public void pushFrontier(int idx, int move) {
+            frontier[tail & frontierMask] = idx << 3 | move;
+            tail++;
+        }
+
+        /**
+         * Removes the entry at the front of the frontier.
+         *
+         * @return the packed entry; use entryTile() and entryMove() to read it
+         */
+        public int pollFrontier() {
+            return frontier[head++ & frontierMask];
+        }
+
+        /** @return the tile index of a packed frontier entry */
+        public static int entryTile(int entry) { return entry >>> 3; }
+
+        /** @return the move code of a packed frontier entry */
+        public static int entryMove(int entry) { return entry & 7; }
+    }
+
+    /** Tile offsets of the eight neighbors of a tile, in the order the enemy path finder prefers them */
+    private static final int[] NEIGHBOR_DX = {1, 0, -1, 0, -1, 1, -1, 1};
+    private static final int[] NEIGHBOR_DY = {0, 1, 0, -1, -1, -1, 1, 1};
+
+    /** The occupancy grid this level model is a view of */
+    private OccupancyGrid occupancy;
+    /** Number of occupancy cells along each side of a tile */
+    private int cellsPerTile;
+    /** Flag bits (WALL, TREE, ...) of each tile, indexed by x + y * gridWidth. A flag is set iff its count is
+     * positive */
+    private byte[] tiles;
+    /** Per flag bit, and then indexed like tiles: the number of wall or tree cells in each tile, or the number of
+     * character footprints covering it */
+    private short[][] counts;
+    /** Tiles (by index) whose player, enemy or less-fog flag turned on or off since the last clearChangedTiles(),
+     * and whether each tile is in that list */
+    private IntArray changedTiles = new IntArray();
+    private boolean[] changed;
+    /** Radius of the largest circle that fits somewhere in each tile (see OccupancyGrid.getMaxClearance()), indexed
+     * like tiles */
+    private float[] tileClearance;
+    /** Radius of the widest enemy that plans on this level model (0 to only keep off walls and trees) */
+    private float agentRadius;
+    /** Number of tile columns and rows */
+    private int gridWidth;
+    private int gridHeight;
+    /** {gridWidth, gridHeight}, handed out by tileGridSize() */
+    private int[] gridSize;
     /** Constant tile size (tiles are square so this is x and y) */
     public float tileSize;
     /** Width of screen */
@@ -48,29 +144,117 @@ public class LevelModel {
     /** Height of screen */
     private float height;
 
+    /** Distance (in tiles) from each tile to the flow field root, indexed by x + y * grid width */
+    private int[] flowField;
+    /** Flow field generation in which each tile was reached. Tiles from older generations have no distance yet */
+    private int[] flowStamp;
+    /** Current flow field generation. Bumping this clears the field in O(1) */
+    private int flowGeneration;
+    /** Preallocated BFS queue of packed tile indices used to grow the flow field, with its read and write positions */
+    private int[] flowQueue;
+    private int flowHead;
+    private int flowTail;
+    /** Root tile of the current flow field (-1 if the field has not been seeded yet) */
+    private int flowRootX;
+    private int flowRootY;
+    /** Static version the current flow field was seeded for */
+    private int flowVersion;
+    /** Incremented whenever a wall or tree is added to or removed from the grid, or the agent radius changes */
+    private int staticVersion;
+    /** Connected region (8-way) of each walkable tile, indexed by x + y * grid width. -1 for blocked tiles */
+    private int[] region;
+    /** Preallocated BFS queue of packed tile indices used to label the regions */
+    private int[] regionQueue;
+    /** Number of connected regions */
+    private int regionCount;
+    /** Static version the regions were labelled for */
+    private int regionVersion;
+    /** Walkable tiles as a bitset: bit x % 64 of word (x / 64) + y * rowWords, built for walkBitsVersion */
+    private long[] walkBits;
+    private int walkBitsVersion;
+    /** Number of longs per row of the tile bitsets */
+    private int rowWords;
+    /** Bitset BFS scratch: tiles reached, the current frontier, and the frontier dilated along its rows */
+    private long[] reachedBits;
+    private long[] frontierBits;
+    private long[] dilatedBits;
+    /** Shared distance fields handed out by requestDistanceField(), with the root tile index, static version and
+     * tick each was last requested in */
+    private final ArrayList<int[]> fields = new ArrayList<>();
+    private int[] fieldRoot = new int[0];
+    private int[] fieldVersion = new int[0];
+    private int[] fieldUsed = new int[0];
+    /** Current tick, advanced by update(). Fields requested this tick are never recycled */
+    private int fieldTick;
+
 
     public LevelModel(){ }
 
+    /**
+     * Initializes the level model on its own occupancy grid, with cells the size of its tiles.
+     *
+     * @param bounds The level bounds
+     * @param walls The walls of the level
+     * @param trees The trees of the level
+     * @param enemies The enemies of the level
+     * @param tileSize The tile size
+     */
     public void initialize(Rectangle bounds, List<WallModel> walls, List<TreeModel> trees, List<EnemyModel> enemies, float tileSize) {
-        width = bounds.getWidth();
-        height = bounds.getHeight();
-        this.tileSize = tileSize;
-
-        tileGrid = new Tile[(int) Math.ceil(width / tileSize)][(int) Math.ceil(height / tileSize)];
-        for(int x = 0; x < tileGrid.length; x++){
-            for(int y = 0; y < tileGrid[0].length; y++){
-                tileGrid[x][y] = new Tile();
-            }
-        }
-        // Set grid to false where obstacle exists
         // TODO: place enemies?
-        for(WallModel w : walls) {
-            setBoxObstacleInGrid(w, true, TileOccupiedBy.WALL);
+        initialize(new OccupancyGrid(bounds, walls, trees, tileSize), tileSize);
+    }
+
+    /**
+     * Initializes the level model as a view of an occupancy grid shared with other level models.
+     *
+     * @param grid The occupancy grid of the level
+     * @param tileSize The tile size. Must be a whole multiple of the grid's cell size
+     */
+    public void initialize(OccupancyGrid grid, float tileSize) {
+        width = grid.getWidth();
+        height = grid.getHeight();
+        this.tileSize = tileSize;
+        occupancy = grid;
+        cellsPerTile = Math.max(1, Math.round(tileSize / grid.getCellSize()));
+        if (Math.abs(cellsPerTile * grid.getCellSize() - tileSize) > 1e-4f) {
+            Gdx.app.error("LevelModel", "Tile size "+tileSize+" does not fit cells of size "+grid.getCellSize(),
+                    new IllegalArgumentException());
         }
 
-        for(TreeModel t : trees) {
-            setBoxObstacleInGrid(t, true, TileOccupiedBy.TREE);
+        gridWidth = (int) Math.ceil(width / tileSize);
+        gridHeight = (int) Math.ceil(height / tileSize);
+        gridSize = new int[]{gridWidth, gridHeight};
+        tiles = new byte[gridWidth * gridHeight];
+        counts = new short[OccupancyGrid.NUM_FLAGS][tiles.length];
+        changedTiles.clear();
+        changed = new boolean[tiles.length];
+        staticVersion++;
+        grid.addView(this);
+        tileClearance = new float[tiles.length];
+        for (int y = 0; y < gridHeight; y++) {
+            for (int x = 0; x < gridWidth; x++) {
+                tileClearance[x + y * gridWidth] = grid.getMaxClearance(x * cellsPerTile, y * cellsPerTile,
+                        (x + 1) * cellsPerTile - 1, (y + 1) * cellsPerTile - 1);
+            }
         }
+        agentRadius = 0;
+
+        flowField = new int[gridWidth * gridHeight];
+        flowStamp = new int[flowField.length];
+        flowGeneration = 0;
+        flowQueue = new int[flowField.length];
+        flowHead = flowTail = 0;
+        flowRootX = flowRootY = -1;
+        region = new int[flowField.length];
+        regionQueue = new int[flowField.length];
+        labelRegions();
+        rowWords = (gridWidth + 63) >>> 6;
+        walkBits = new long[rowWords * gridHeight];
+        reachedBits = new long[walkBits.length];
+        frontierBits = new long[walkBits.length];
+        dilatedBits = new long[walkBits.length];
+        walkBitsVersion = staticVersion - 1;
+        fields.clear();
     }
 
     /**
@@ -90,79 +274,97 @@ public class LevelModel {
      * Sets tiles previously covered by player as available
      * @param player
      */
-    public void removePlayer(PlayerModel player) { setWheelObstacleInGrid(player, false, TileOccupiedBy.PLAYER, false); }
+    public void removePlayer(PlayerModel player) { occupancy.removeCharacter(player); }
 
     /**
      * Sets tiles currently covered by player as unavailable
      * @param player
      */
-    public void placePlayer(PlayerModel player) { setWheelObstacleInGrid(player, true, TileOccupiedBy.PLAYER, false); }
+    public void placePlayer(PlayerModel player) { occupancy.placePlayer(player); }
 
     /**
      * Sets tiles previously covered by enemy as available
      * @param enemy
      */
-    public void removeEnemy(EnemyModel enemy) { setWheelObstacleInGrid(enemy, false, TileOccupiedBy.ENEMY, false); }
+    public void removeEnemy(EnemyModel enemy) { occupancy.removeCharacter(enemy); }
 
     /**
      * Sets tiles currently covered by enemy as unavailable
      * @param enemy
      */
-    public void placeEnemy(EnemyModel enemy) {
-        setWheelObstacleInGrid(enemy, true, TileOccupiedBy.ENEMY, (enemy.getClass() == EnemyTypeBModel.class)
-                || enemy.getClass() == EnemyGhostModel.class); }
+    public void placeEnemy(EnemyModel enemy) { occupancy.placeEnemy(enemy); }
 
-    private void markObstacleTypeInGrid(int x, int y, boolean b, TileOccupiedBy o) {
-        switch (o) {
-            case WALL:
-                tileGrid[x][y].wall = b;
-                break;
-            case TREE:
-                tileGrid[x][y].tree = b;
-                break;
-            case ENEMY:
-                tileGrid[x][y].enemy = b;
-                break;
-            case PLAYER:
-                tileGrid[x][y].player = b;
-                break;
-        }
+    /** @return the occupancy grid this level model is a view of */
+    public OccupancyGrid getOccupancyGrid() { return occupancy; }
+
+    /** @return the flag bits of a tile, by index x + y * grid width */
+    byte getTileFlags(int idx) { return tiles[idx]; }
+
+    /** @return the tile holding an occupancy cell (along either axis) */
+    int cellToTile(int cell) { return cell / cellsPerTile; }
+
+    /**
+     * Counts a wall or tree occupancy cell toward the tile holding it. Called by the occupancy grid.
+     *
+     * @param cellX Cell x-coor
+     * @param cellY Cell y-coor
+     * @param flag WALL or TREE
+     * @param delta 1 for a new cell, -1 for a cleared one
+     */
+    void coverCell(int cellX, int cellY, byte flag, int delta) {
+        int x = cellToTile(cellX), y = cellToTile(cellY);
+        if (inBounds(x, y)) count(x + y * gridWidth, flag, delta);
     }
 
     /**
-     * Set tiles currently covered by WheelObstacle obs to boolean b
-     * @param obs Wheel obstacle
-     * @param b Boolean value
-     * @param o Type of obstacle
-     * @param sh : If this is a shooter enemy (for fog)
-     */
-    public void setWheelObstacleInGrid(WheelObstacle obs, boolean b, TileOccupiedBy o, boolean sh) {
-        for(int x = screenToTile(obs.getX() - obs.getRadius());
-            x <= screenToTile(obs.getX() + obs.getRadius()); x++) {
-            for(int y = screenToTile(obs.getY() - obs.getRadius());
-                y <= screenToTile(obs.getY() + obs.getRadius()); y++) {
-                if (!inBounds(x, y)) continue;
-                if(sh) tileGrid[x][y].hasLessFog = true;
-                markObstacleTypeInGrid(x, y, b, o);
+     * Adds delta to the footprint counts of the given flags on a rectangle of tiles, skipping the tiles of a second
+     * rectangle (pass an empty one, with kx1 < kx0, to skip none). Called by the occupancy grid as footprints move.
+     */
+    void coverTiles(int x0, int y0, int x1, int y1, byte flags, int delta, int kx0, int ky0, int kx1, int ky1) {
+        x1 = Math.min(x1, gridWidth - 1);
+        y1 = Math.min(y1, gridHeight - 1);
+        for (int y = y0; y <= y1; y++) {
+            boolean keptRow = y >= ky0 && y <= ky1;
+            for (int x = x0; x <= x1; x++) {
+                if (keptRow && x >= kx0 && x <= kx1) continue;
+                int idx = x + y * gridWidth;
+                if ((flags & PLAYER) != 0) count(idx, PLAYER, delta);
+                if ((flags & ENEMY) != 0) count(idx, ENEMY, delta);
+                if ((flags & LESS_FOG) != 0) count(idx, LESS_FOG, delta);
             }
         }
     }
 
+    /** Adds delta to one count of a tile, and sets its flag iff the count is positive */
+    private void count(int idx, byte flag, int delta) {
+        short[] c = counts[Integer.numberOfTrailingZeros(flag)];
+        c[idx] += delta;
+        byte old = tiles[idx];
+        tiles[idx] = (byte) (c[idx] > 0 ? old | flag : old & ~flag);
+        if (tiles[idx] == old) return;
+        if ((flag & BLOCKED) != 0) {
+            staticVersion++;
+        } else if (!changed[idx]) {
+            changed[idx] = true;
+            changedTiles.add(idx);
+        }
+    }
+
     /**
-     * Set tiles currently covered by BoxObstacle obs to boolean b
-     * @param obs Wheel obstacle
-     * @param b Boolean value
-     * @param o Type of obstacle
+     * Returns the tiles whose player, enemy or less-fog flag turned on or off since the last clearChangedTiles()
+     * (each listed once, by x + y * grid width). Lets a caller that scans tiles lazily still react to characters at
+     * once.
+     *
+     * @return the changed tiles
      */
-    public void setBoxObstacleInGrid(BoxObstacle obs, boolean b, TileOccupiedBy o) {
-        for(int x = screenToTile(obs.getX() - obs.getWidth()/2);
-            x <= screenToTile(obs.getX() + obs.getWidth()/2); x++) {
-            for(int y = screenToTile(obs.getY() - obs.getHeight()/2);
-                y <= screenToTile(obs.getY() + obs.getHeight()/2); y++) {
-                if (!inBounds(x, y)) continue;
-                markObstacleTypeInGrid(x, y, b, o);
-            }
+    public IntArray getChangedTiles() { return changedTiles; }
+
+    /** Empties the list of changed tiles */
+    public void clearChangedTiles() {
+        for (int i = 0; i < changedTiles.size; i++) {
+            changed[changedTiles.get(i)] = false;
         }
+        changedTiles.clear();
     }
 
     /**
@@ -208,142 +410,469 @@ public class LevelModel {
      * @return true if the given position is a valid tile
      */
     public boolean inBounds(int x, int y) {
-        return x >= 0 && y >= 0 && x < tileGrid.length && y < tileGrid[0].length;
+        return x >= 0 && y >= 0 && x < gridWidth && y < gridHeight;
     }
 
     /**
-     * Returns whether the input tile is available for movement.
+     * Returns whether the tile is in bounds, free of walls and trees, and wide enough for the level's widest pathing
+     * enemy (see setAgentRadius()).
+     *
+     * This only reads the static grid, so it is safe to call from several threads while no one is updating the
+     * level.
+     *
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @return whether an enemy may walk on the tile
+     */
+    public boolean isWalkable(int x, int y) {
+        return inBounds(x, y) && (tiles[x + y * gridWidth] & UNWALKABLE) == 0;
+    }
+
+    /**
+     * Returns whether the input tile is available for movement. Same as isWalkable(); the exception for an
+     * unwalkable goal tile is now kept by each enemy's planner (see AIController).
      *
      * @param x Tile x-coor
      * @param y Tile y-coor
      * @return isSafe boolean
      */
     public boolean isSafe(int x, int y) {
-        return inBounds(x,y) && (!(tileGrid[x][y].wall || tileGrid[x][y].tree) ||tileGrid[x][y].goal);
-    } //TODO: temporary change
+        return isWalkable(x, y);
+    }
+
+    /**
+     * Returns the clearance of a tile: the radius of the largest circle that fits somewhere in it without touching a
+     * wall or tree.
+     *
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @return the clearance, or 0 if the tile is out of bounds
+     */
+    public float getClearance(int x, int y) {
+        return inBounds(x, y) ? tileClearance[x + y * gridWidth] : 0;
+    }
+
+    /**
+     * Sets the radius of the widest enemy that plans paths on this level model.
+     *
+     * Tiles where no circle of that radius fits are then not walkable, so every planner and shared field keeps
+     * enemies out of gaps they would get pinned in. Walkability changes like a wall change, so caches built on it
+     * are rebuilt.
+     *
+     * @param radius The enemy radius (0 to only keep enemies off walls and trees)
+     */
+    public void setAgentRadius(float radius) {
+        agentRadius = radius;
+        for (int idx = 0; idx < tiles.length; idx++) {
+            tiles[idx] = (byte) (tileClearance[idx] < radius ? tiles[idx] | NARROW : tiles[idx] & ~NARROW);
+        }
+        staticVersion++;
+        labelRegions();
+    }
+
+    /** @return the radius of the widest enemy that plans paths on this level model */
+    public float getAgentRadius() { return agentRadius; }
 
     /** Whether wall is on a tile. */
-    public boolean hasWall(int x, int y) { return tileGrid[x][y].wall; }
+    public boolean hasWall(int x, int y) { return (tiles[x + y * gridWidth] & WALL) != 0; }
 
     /** Whether tree is on a tile. */
-    public boolean hasTree(int x, int y) { return tileGrid[x][y].tree; }
+    public boolean hasTree(int x, int y) { return (tiles[x + y * gridWidth] & TREE) != 0; }
 
     /** Whether player is on a tile. */
-    public boolean hasPlayer(int x, int y) { return tileGrid[x][y].player; }
+    public boolean hasPlayer(int x, int y) { return (tiles[x + y * gridWidth] & PLAYER) != 0; }
 
     /** Whether enemy is on a tile. */
-    public boolean hasEnemy(int x, int y) { return tileGrid[x][y].enemy; }
+    public boolean hasEnemy(int x, int y) { return (tiles[x + y * gridWidth] & ENEMY) != 0; }
 
     /** Whether shooter is on a tile. */
-    public boolean hasLessFog(int x, int y) { return tileGrid[x][y].hasLessFog; }
+    public boolean hasLessFog(int x, int y) { return (tiles[x + y * gridWidth] & LESS_FOG) != 0; }
+
+    /** Tile grid size, as {columns, rows}. The array is shared, so callers must not modify it. */
+    public int[] tileGridSize() { return gridSize; }
+
+    /** Number of tile columns. */
+    public int getTileGridWidth() { return gridWidth; }
+
+    /** Number of tile rows. */
+    public int getTileGridHeight() { return gridHeight; }
+
+    /**
+     * Returns the flat index of a tile, as used by SearchScratch and the flow field.
+     *
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @return x + y * grid width
+     */
+    public int tileIndex(int x, int y) { return x + y * gridWidth; }
 
-    /** Tile grid size. */
-    public int[] tileGridSize() { return new int[]{tileGrid.length, tileGrid[0].length}; }
+    /**
+     * Returns a counter that changes whenever the static obstacles (walls and trees) in the grid or the agent radius
+     * change, that is whenever isWalkable() may answer differently.
+     *
+     * Caches built from isWalkable() can compare this against the value they were built with to know when to rebuild.
+     *
+     * @return the static obstacle version
+     */
+    public int getStaticVersion() { return staticVersion; }
 
     /**
-     * Returns true if the tile has been visited.
+     * Creates a new search scratch sized to this level's grid.
      *
-     * A tile position that is not on the board will return false.
-     * Precondition: tile in bounds
+     * Searches that use their own scratch together with isWalkable() never write to this LevelModel, so several of
+     * them can run at the same time.
      *
-     * @param x The x index for the Tile cell
-     * @param y The y index for the Tile cell
+     * @return a fresh SearchScratch with no marks
+     */
+    public SearchScratch createSearchScratch() {
+        return new SearchScratch(gridWidth * gridHeight);
+    }
+
+    /**
+     * Re-roots the shared flow field at the given tile.
+     *
+     * The flow field holds the 8-way BFS distance from tiles to the root, using the same movement rules as the enemy
+     * path finder (every step must land on a walkable tile, and the root is always enterable). It is
+     * grown lazily: this only seeds the search, and settleFlowField() expands it just far enough to answer the
+     * enemies that read it. Re-seeding is O(1), so this is cheap to call every tick; it does nothing unless the root
+     * moved or walls or trees changed.
      *
-     * @return true if the tile is a goal.
+     * @param rootX Root tile x-coor
+     * @param rootY Root tile y-coor
      */
-    public boolean isVisited(int x, int y){
-        if (!inBounds(x,y)) {
-            Gdx.app.error("Board", "Illegal tile "+x+","+y, new IndexOutOfBoundsException());
-            return false;
+    public void updateFlowField(int rootX, int rootY) {
+        if (rootX == flowRootX && rootY == flowRootY && flowVersion == staticVersion) return;
+        if (regionVersion != staticVersion) labelRegions();
+        flowRootX = rootX;
+        flowRootY = rootY;
+        flowVersion = staticVersion;
+        flowGeneration++;
+        if (flowGeneration == Integer.MAX_VALUE) {
+            Arrays.fill(flowStamp, 0);
+            flowGeneration = 1;
         }
-        return tileGrid[x][y].visited;
+        flowHead = flowTail = 0;
+        if (!inBounds(rootX, rootY)) return;
+
+        int root = rootX + rootY * gridWidth;
+        flowField[root] = 0;
+        flowStamp[root] = flowGeneration;
+        flowQueue[flowTail++] = root;
     }
 
     /**
-     * Marks a tile as visited.
+     * Grows the flow field until the distances of every walkable neighbor of a tile are known.
      *
-     * A marked tile will return true for isVisited(), until a call to clearAllTiles().
-     * A tile position that is not on the board will raise an error
-     * Precondition: tile in bounds
+     * BFS assigns each tile its final distance when it is first reached, so the search simply resumes where the last
+     * call stopped, and a chase near the player only ever explores the tiles around it instead of the whole level.
+     * Neighbors in a different region from the root can never be reached, so they are not waited for.
      *
-     * @param x The x index for the Tile cell
-     * @param y The y index for the Tile cell
+     * This writes the shared field, so it must be called from the main thread (before planning reads the field).
+     *
+     * @param x Tile x-coor
+     * @param y Tile y-coor
      */
-    public void setVisited(int x, int y){
-        if (!inBounds(x,y)) {
-            Gdx.app.error("Board", "Illegal tile "+x+","+y, new IndexOutOfBoundsException());
-            return;
+    public void settleFlowField(int x, int y) {
+        int rootRegion = isWalkable(flowRootX, flowRootY) ? region[flowRootX + flowRootY * gridWidth] : -1;
+        for (int i = 0; i < NEIGHBOR_DX.length; i++) {
+            int nx = x + NEIGHBOR_DX[i], ny = y + NEIGHBOR_DY[i];
+            if (!isWalkable(nx, ny)) continue;
+            int n = nx + ny * gridWidth;
+            if (rootRegion != -1 && region[n] != rootRegion) continue;
+            while (flowStamp[n] != flowGeneration && flowHead < flowTail)
+                expandFlowField();
+        }
+    }
+
+    /** Expands the next tile of the flow field's BFS frontier */
+    private void expandFlowField() {
+        int w = gridWidth;
+        int idx = flowQueue[flowHead++];
+        int x = idx % w, y = idx / w;
+        int dist = flowField[idx] + 1;
+        for (int nx = x - 1; nx <= x + 1; nx++) {
+            for (int ny = y - 1; ny <= y + 1; ny++) {
+                if (!isWalkable(nx, ny)) continue;
+                int n = nx + ny * w;
+                if (flowStamp[n] == flowGeneration) continue;
+                flowField[n] = dist;
+                flowStamp[n] = flowGeneration;
+                flowQueue[flowTail++] = n;
+            }
         }
-        tileGrid[x][y].visited = true;
     }
 
     /**
-     * Returns true if the tile is a goal.
+     * Returns the flow field distance from a tile to the flow field root.
      *
-     * A tile position that is not on the board will return false.
-     * Precondition: tile in bounds
+     * Only tiles settled by settleFlowField() (or reached on the way) have a distance.
      *
-     * @param x The x index for the Tile cell
-     * @param y The y index for the Tile cell
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @return number of moves to reach the root, or -1 if the tile is out of bounds or has not been reached
+     */
+    public int getFlowDistance(int x, int y) {
+        if (!inBounds(x, y)) return -1;
+        int idx = x + y * gridWidth;
+        return flowStamp[idx] == flowGeneration ? flowField[idx] : -1;
+    }
+
+    /**
+     * Computes the 8-way BFS distance from every tile to a root tile, using the movement rules of the flow field.
+     *
+     * The grid is packed into bitsets, one bit per tile and 64 tiles per long, so a whole BFS layer is expanded with
+     * a few shifts, ANDs and ORs per word: the frontier is smeared one tile left and right along each row, then
+     * OR-ed with the rows above and below, and masked with the walkable tiles not yet reached. Only the rows the
+     * frontier spans are touched, and distances are written for the newly reached bits alone, so the cost is one
+     * pass over the frontier's rows per layer plus one write per reached tile.
      *
-     * @return true if the tile is a goal.
+     * @param rootX Root tile x-coor
+     * @param rootY Root tile y-coor
+     * @param dist Output distances, indexed by x + y * grid width (at least that many tiles long). Tiles that cannot
+     *             reach the root are set to -1
+     * @return the number of tiles reached (0 if the root is out of bounds)
      */
-    public boolean isGoal(int x, int y){
-        if (!inBounds(x,y)) {
-            Gdx.app.error("Board", "Illegal tile "+x+","+y, new IndexOutOfBoundsException());
-            return false;
+    public int computeDistanceField(int rootX, int rootY, int[] dist) {
+        Arrays.fill(dist, 0, flowField.length, -1);
+        if (!inBounds(rootX, rootY)) return 0;
+        if (walkBitsVersion != staticVersion) buildWalkBits();
+
+        int w = gridWidth, h = gridHeight, words = rowWords;
+        long[] walk = walkBits, reached = reachedBits, frontier = frontierBits, dilated = dilatedBits;
+        Arrays.fill(reached, 0L);
+        Arrays.fill(frontier, 0L);
+        int root = (rootX >>> 6) + rootY * words;
+        reached[root] = frontier[root] = 1L << (rootX & 63);
+        dist[rootX + rootY * w] = 0;
+        int count = 1;
+        int minY = rootY, maxY = rootY;
+        for (int d = 1; minY <= maxY; d++) {
+            // Smear the frontier one tile left and right within each of its rows
+            for (int y = minY; y <= maxY; y++) {
+                int row = y * words;
+                for (int i = 0; i < words; i++) {
+                    long f = frontier[row + i];
+                    long carryIn = i > 0 ? frontier[row + i - 1] >>> 63 : 0L;
+                    long carryOut = i + 1 < words ? frontier[row + i + 1] << 63 : 0L;
+                    dilated[row + i] = f | (f << 1) | carryIn | (f >>> 1) | carryOut;
+                }
+            }
+            // The next frontier is every unreached walkable tile in or next to a smeared row
+            int y0 = Math.max(0, minY - 1), y1 = Math.min(h - 1, maxY + 1);
+            int nextMinY = h, nextMaxY = -1;
+            for (int y = y0; y <= y1; y++) {
+                int row = y * words;
+                boolean any = false;
+                for (int i = 0; i < words; i++) {
+                    long near = 0L;
+                    if (y > minY) near |= dilated[row - words + i];
+                    if (y >= minY && y <= maxY) near |= dilated[row + i];
+                    if (y < maxY) near |= dilated[row + words + i];
+                    long next = near & walk[row + i] & ~reached[row + i];
+                    frontier[row + i] = next;
+                    if (next == 0L) continue;
+                    any = true;
+                    reached[row + i] |= next;
+                    int base = (i << 6) + y * w;
+                    while (next != 0L) {
+                        dist[base + Long.numberOfTrailingZeros(next)] = d;
+                        next &= next - 1;
+                        count++;
+                    }
+                }
+                if (any) {
+                    nextMinY = Math.min(nextMinY, y);
+                    nextMaxY = y;
+                }
+            }
+            minY = nextMinY;
+            maxY = nextMaxY;
+        }
+        return count;
+    }
+
+    /** Packs the walkable tiles into walkBits (bits past the last column stay clear, so nothing spills over) */
+    private void buildWalkBits() {
+        Arrays.fill(walkBits, 0L);
+        for (int y = 0; y < gridHeight; y++) {
+            for (int x = 0; x < gridWidth; x++) {
+                if (isWalkable(x, y)) walkBits[(x >>> 6) + y * rowWords] |= 1L << (x & 63);
+            }
         }
-        return tileGrid[x][y].goal;
+        walkBitsVersion = staticVersion;
     }
 
     /**
-     * Marks a tile as a goal.
+     * Returns a shared, whole-grid distance field rooted at the given tile (see computeDistanceField()).
      *
-     * A marked tile will return true for isGoal(), until a call to clearAllTiles().
-     * A tile position that is not on the board will raise an error
-     * Precondition: tile in bounds
+     * Fields are cached by root tile, so enemies heading for the same place (such as a flare) share a single field,
+     * and a field is only recomputed when walls or trees change. A field requested this tick is never recycled for
+     * another root before the next update().
      *
-     * @param x The x index for the Tile cell
-     * @param y The y index for the Tile cell
+     * This writes the shared fields, so it must be called from the main thread (before planning reads the field).
+     *
+     * @param rootX Root tile x-coor
+     * @param rootY Root tile y-coor
+     * @return a field id for getFieldDistance(), valid until the next update()
      */
-    public void setGoal(int x, int y){
-        if (!inBounds(x,y)) {
-            Gdx.app.error("Board", "Illegal tile "+x+","+y, new IndexOutOfBoundsException());
-            return;
+    public int requestDistanceField(int rootX, int rootY) {
+        int root = inBounds(rootX, rootY) ? tileIndex(rootX, rootY) : -1;
+        int slot = -1;
+        for (int f = 0; f < fields.size(); f++) {
+            if (fieldRoot[f] == root) {
+                slot = f;
+                break;
+            }
+            // Otherwise recycle the field that has gone unrequested the longest
+            if (fieldUsed[f] != fieldTick && (slot < 0 || fieldUsed[f] < fieldUsed[slot])) slot = f;
+        }
+        if (slot < 0) {
+            slot = fields.size();
+            fields.add(new int[flowField.length]);
+            fieldRoot = Arrays.copyOf(fieldRoot, slot + 1);
+            fieldVersion = Arrays.copyOf(fieldVersion, slot + 1);
+            fieldUsed = Arrays.copyOf(fieldUsed, slot + 1);
+            fieldRoot[slot] = Integer.MIN_VALUE; // no root yet
+        }
+        if (fieldRoot[slot] != root || fieldVersion[slot] != staticVersion) {
+            computeDistanceField(rootX, rootY, fields.get(slot));
+            fieldRoot[slot] = root;
+            fieldVersion[slot] = staticVersion;
         }
-        tileGrid[x][y].goal = true;
+        fieldUsed[slot] = fieldTick;
+        return slot;
     }
 
     /**
-     * Set the goal and visited of each tile to false
+     * Returns the distance from a tile to the root of a shared distance field.
+     *
+     * @param field Field id from requestDistanceField() this tick
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @return number of moves to reach the root, or -1 if the tile is out of bounds or cannot reach it
+     */
+    public int getFieldDistance(int field, int x, int y) {
+        if (!inBounds(x, y)) return -1;
+        return fields.get(field)[x + y * gridWidth];
+    }
+
+    /**
+     * Labels every walkable tile with its connected region, using the movement rules of the enemy path finder.
+     *
+     * Two walkable tiles share a region exactly when a path of walkable tiles joins them.
      */
-    public void clearAllTiles() {
-        for (int x = 0; x < tileGrid.length; x++) {
-            for (int y = 0; y < tileGrid[0].length; y++) {
-                tileGrid[x][y].goal = false;
-                tileGrid[x][y].visited = false;
+    private void labelRegions() {
+        Arrays.fill(region, -1);
+        regionCount = 0;
+        int w = gridWidth;
+        int[] queue = regionQueue;
+        for (int start = 0; start < region.length; start++) {
+            if (region[start] != -1 || !isWalkable(start % w, start / w)) continue;
+            int label = regionCount++;
+            int head = 0, tail = 0;
+            region[start] = label;
+            queue[tail++] = start;
+            while (head < tail) {
+                int idx = queue[head++];
+                int x = idx % w, y = idx / w;
+                for (int nx = x - 1; nx <= x + 1; nx++) {
+                    for (int ny = y - 1; ny <= y + 1; ny++) {
+                        if (!isWalkable(nx, ny)) continue;
+                        int n = nx + ny * w;
+                        if (region[n] != -1) continue;
+                        region[n] = label;
+                        queue[tail++] = n;
+                    }
+                }
             }
         }
+        regionVersion = staticVersion;
     }
 
-    public void update(PlayerModel p, Collection<EnemyModel> em) {
-        for (int x = 0; x < tileGrid.length; x++) {
-            for (int y = 0; y < tileGrid[0].length; y++) {
-               tileGrid[x][y].enemy = false;
-               tileGrid[x][y].hasLessFog = false;
-               tileGrid[x][y].player = false;
-            }
+    /**
+     * Returns the connected region of a tile.
+     *
+     * A blocked tile (such as an enemy standing against a tree) takes the region of its first walkable neighbor
+     * in path finder order, since that is where any path from it leads.
+     *
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @return the region label, or -1 if the tile is out of bounds or is blocked with no walkable neighbor
+     */
+    public int getRegion(int x, int y) {
+        if (!inBounds(x, y)) return -1;
+        int label = region[x + y * gridWidth];
+        if (label != -1) return label;
+        for (int i = 0; i < NEIGHBOR_DX.length; i++) {
+            int nx = x + NEIGHBOR_DX[i], ny = y + NEIGHBOR_DY[i];
+            if (isWalkable(nx, ny)) return region[nx + ny * gridWidth];
         }
-        placePlayer(p);
-        for (EnemyModel e : em) {
-            placeEnemy(e);
+        return -1;
+    }
+
+    /** @return the number of connected regions of walkable tiles */
+    public int getRegionCount() { return regionCount; }
+
+    /**
+     * Finds the walkable tile of a region nearest (by straight-line distance) to a given tile.
+     *
+     * Searches square rings of growing radius around the tile, stopping once no closer tile can remain. Ties are
+     * broken by scan order, so the result is deterministic.
+     *
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @param label The region to search for
+     * @param maxRadius Largest ring (in tiles) to search
+     * @return the tile index of the nearest tile of the region, or -1 if there is none within maxRadius
+     */
+    public int findNearestInRegion(int x, int y, int label, int maxRadius) {
+        int w = gridWidth, h = gridHeight;
+        int best = -1, bestDist2 = Integer.MAX_VALUE;
+        for (int r = 0; r <= maxRadius && r * r < bestDist2; r++) {
+            for (int ny = Math.max(0, y - r); ny <= Math.min(h - 1, y + r); ny++) {
+                // Rows at the top and bottom of the ring are scanned in full, the rest only at their two ends
+                int step = (ny == y - r || ny == y + r) ? 1 : Math.max(1, 2 * r);
+                for (int nx = x - r; nx <= x + r; nx += step) {
+                    if (nx < 0 || nx >= w || region[nx + ny * w] != label) continue;
+                    int d2 = (nx - x) * (nx - x) + (ny - y) * (ny - y);
+                    if (d2 < bestDist2) {
+                        best = nx + ny * w;
+                        bestDist2 = d2;
+                    }
+                }
+            }
         }
+        return best;
+    }
+
+    /**
+     * Updates the occupancy grid with the player and enemies, then this level model (see update()).
+     *
+     * Use this for a level model with its own occupancy grid. When the grid is shared, update it once and call
+     * update() on each of its level models instead.
+     *
+     * @param p The player
+     * @param em The enemies
+     */
+    public void update(PlayerModel p, Collection<EnemyModel> em) {
+        occupancy.update(p, em);
+        update();
+    }
+
+    /**
+     * Relabels regions if walls or trees changed, and starts a new tick for the shared distance fields.
+     *
+     * The player and enemy flags need no work here: the occupancy grid pushes every change to them as it happens.
+     */
+    public void update() {
+        if (regionVersion != staticVersion) labelRegions();
+        fieldTick++;
     }
 
     public void drawDebug(GameCanvas canvas, Vector2 drawScale) {
-        for (int x = 0; x < tileGrid.length; x++) {
-            for (int y = 0; y < tileGrid[0].length; y++) {
-                canvas.drawGrid(x, y, isSafe(x, y), drawScale, tileSize);
+        for (int y = 0; y < gridHeight; y++) {
+            for (int x = 0; x < gridWidth; x++) {
+                canvas.drawGrid(x, y, isWalkable(x, y), drawScale, tileSize);
             }
         }
     }
@@ -4,8 +4,10 @@ import box2dLight.RayHandler;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.BodyDef;
 import com.badlogic.gdx.physics.box2d.Filter;
 import com.badlogic.gdx.physics.box2d.World;
 import com.badlogic.gdx.utils.JsonValue;
@@ -13,12 +15,11 @@ import com.fallenflame.game.enemies.EnemyModel;
 import com.fallenflame.game.physics.lights.PointSource;
 import com.fallenflame.game.physics.obstacle.Obstacle;
 
-import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 /**
  * {@code LightController} manages and renders the light effect of the game.
@@ -37,10 +38,37 @@ public class LightController {
     private static Logger log = Logger.getLogger("LightController");
 
     /**
-     * The amount of rays each light source emits. The more rays the more precise the lights will be, but the more
-     * resource it will use.
+     * The most rays a light source emits. The more rays the more precise the lights will be, but the more resource it
+     * will use. Levels may change this with "maxRays" in their lighting config.
      */
-    private static final int RAYS = 512;
+    static final int RAYS = 512;
+
+    /** The fewest rays a light source emits ("minRays" in the lighting config). */
+    static final int MIN_RAYS = 32;
+
+    /**
+     * Length (in screen pixels) of a light's rim covered by each ray ("rayPixels" in the lighting config). A light
+     * gets enough rays for its rim, rounded up to a power of two so animating lights rarely change their count.
+     */
+    static final float RAY_PIXELS = 4f;
+
+    /**
+     * Lights whose circle is further than this from the view center (in half view diagonals) are off to the side,
+     * and get half the rays.
+     */
+    private static final float OFF_CENTER = 0.5f;
+
+    /**
+     * A light with half its rays gets them all back only once it is this much further in than OFF_CENTER, so a light
+     * sitting at the edge does not re-allocate its rays (box2dlights' setRayNum()) every frame.
+     */
+    private static final float OFF_CENTER_RETURN = OFF_CENTER * 0.8f;
+
+    /** Speed (in world units per second) below which an item counts as idle, so its light is static */
+    private static final float IDLE_SPEED = 0.01f;
+
+    /** Smallest radius change (in world units) that is applied to a light, so rounding never re-casts its rays */
+    private static final float DISTANCE_EPSILON = 1e-4f;
 
     /**
      * A cached copy of player model.
@@ -107,6 +135,11 @@ public class LightController {
 
     protected static final int DEFAULT_ANIMATE_TICKS = 9;
 
+    /** Most and fewest rays a light emits, and the rim length (in screen pixels) covered by each ray */
+    protected int maxRays;
+    protected int minRays;
+    protected float rayPixels;
+
     /**
      * Initialise this controller.
      *
@@ -121,6 +154,10 @@ public class LightController {
         animateIn = new HashMap<>();
         animateOut = new HashMap<>();
         animateTicks = levelLighting.has("animateTicks") ? levelLighting.get("animateTicks").asInt() : DEFAULT_ANIMATE_TICKS;
+        maxRays = levelLighting.has("maxRays") ? levelLighting.get("maxRays").asInt() : RAYS;
+        minRays = Math.min(maxRays, levelLighting.has("minRays") ? levelLighting.get("minRays").asInt() : MIN_RAYS);
+        rayPixels = levelLighting.has("rayPixels") ? levelLighting.get("rayPixels").asFloat() : RAY_PIXELS;
+        this.scale = scale.x;
 
         // Set up camera first.
         raycamera = new OrthographicCamera(
@@ -145,8 +182,9 @@ public class LightController {
         playerLight = createPointLight(player.getLightRadius()+playerLightOffset, player.getTextureX(), player.getTextureY());
         targetPlayerRadius = player.getLightRadius();
 
-        // Create exit light.
+        // Create exit light. The exit never moves, so its rays are cast again only when its own rays change.
         exitLight = createPointLight(exit.getLightRadius(), exit.getX(), exit.getY());
+        exitLight.setStaticLight(true);
 
         // Create empty maps for flare, fireball and enemy lights.
         this.flareLights = new HashMap<>();
@@ -190,8 +228,9 @@ public class LightController {
      * @return The {@code PointSource} instance.
      */
     protected PointSource createPointLight(float dist, float x, float y) {
-        // Create point source.
-        PointSource p = new PointSource(rayhandler, RAYS, Color.WHITE, dist, x, y);
+        // Create point source. It is sized for the most rays, and casts as many as its size on screen calls for.
+        PointSource p = new PointSource(rayhandler, maxRays, Color.WHITE, dist, x, y);
+        p.setRays(rayCount(p));
         p.setSoft(true);
 
         // Set up filter.
@@ -203,35 +242,130 @@ public class LightController {
         return p;
     }
 
+    /**
+     * Keeps a map of lights in step with the lit entities of an index: fades out the lights of entities that left it
+     * or went dark, moves the rest, and creates lights for the newly lit ones. Membership is a hash lookup in the
+     * index rather than a scan of an entity list.
+     *
+     * @param index The entities that may be lit
+     * @param lightMap The lights of the entities, by entity
+     * @param lit Which entities in the index have a light (null if all do)
+     * @param idle Which entities hold still, so their lights are static (null if none do)
+     */
     protected <T extends Obstacle & ILight>
-    void updateLightsForList(Collection<T> list, Map<T, PointSource> lightMap) {
+    void updateLightsForList(SpatialHash<T> index, Map<T, PointSource> lightMap, Predicate<T> lit,
+                             Predicate<T> idle) {
         // First step: Remove lights of things that are no longer in the list.
-        Set<Map.Entry<T, PointSource>> entrySet = lightMap.entrySet();
-        entrySet.removeIf(i -> {
-            if (!list.contains(i.getKey())) {
+        Iterator<Map.Entry<T, PointSource>> it = lightMap.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<T, PointSource> i = it.next();
+            if (!index.contains(i.getKey()) || (lit != null && !lit.test(i.getKey()))) {
                 PointSource l = i.getValue();
                 animateIn.remove(l);
                 animateOut.put(l, 1f);
-                return true;
+                it.remove();
             }
-            return false;
-        });
+        }
 
-        // Second step: Update light radii for lights already there.
-        for (Map.Entry<T, PointSource> entry : entrySet) {
-           flareLightOffset = (entry.getValue().getDistance()/PLAYER_LIGHT_RATIO);
-            entry.getValue().setDistance(entry.getKey().getLightRadius()+flareLightOffset);
-            entry.getValue().setColor(entry.getKey().getLightColor());
-            entry.getValue().setPosition(entry.getKey().getPosition());
+        // Second step: Update light radii for lights already there. Only what changed is set, since any change
+        // makes a static light cast its rays again.
+        for (Map.Entry<T, PointSource> entry : lightMap.entrySet()) {
+            PointSource l = entry.getValue();
+            T i = entry.getKey();
+            boolean still = idle != null && idle.test(i);
+            if (l.isStaticLight() != still) l.setStaticLight(still);
+            flareLightOffset = (l.getDistance()/PLAYER_LIGHT_RATIO);
+            float distance = i.getLightRadius()+flareLightOffset;
+            if (Math.abs(l.getDistance() - distance) > DISTANCE_EPSILON) l.setDistance(distance);
+            if (!l.getColor().equals(i.getLightColor())) l.setColor(i.getLightColor());
+            if (l.getX() != i.getX() || l.getY() != i.getY()) l.setPosition(i.getX(), i.getY());
         }
 
         // Last step: Create lights for new things in the list.
-        list.stream().filter(i -> !lightMap.containsKey(i)).forEach(i -> {
+        for (int n = 0; n < index.size(); n++) {
+            T i = index.get(n);
+            if (lightMap.containsKey(i) || (lit != null && !lit.test(i))) continue;
             PointSource f = createPointLight(i.getLightRadius()+flareLightOffset, i.getX(), i.getY());
             f.setColor(i.getLightColor());
             lightMap.put(i, f);
             animateIn.put(f, 0f);
-        });
+        }
+    }
+
+    /**
+     * Returns the number of rays a light should emit: enough for its rim on screen, halved if it is off to the side
+     * of the view.
+     *
+     * @param l The light
+     * @return the number of rays, between minRays and maxRays
+     */
+    protected int rayCount(PointSource l) {
+        return rayCount(l.getDistance(), l.getX(), l.getY(), raycamera, scale, rayPixels, minRays, maxRays,
+                l.getRayNum());
+    }
+
+    /**
+     * Returns the number of rays a light of the given radius and position should emit in a view.
+     *
+     * @param distance Light radius (in world units)
+     * @param x Light x-coor
+     * @param y Light y-coor
+     * @param view The ray camera
+     * @param scale Pixels per world unit
+     * @param rayPixels Length (in screen pixels) of the rim covered by each ray
+     * @param minRays Fewest rays
+     * @param maxRays Most rays
+     * @param current Rays the light emits now (0 for a new light), so one with half its rays keeps them until it is
+     *                well back toward the center
+     * @return the number of rays, between minRays and maxRays
+     */
+    static int rayCount(float distance, float x, float y, OrthographicCamera view, float scale, float rayPixels,
+                        int minRays, int maxRays, int current) {
+        float rim = MathUtils.PI2 * distance * scale;
+        int rays = Integer.highestOneBit(Math.max(1, (int) Math.ceil(rim / rayPixels) - 1)) << 1;
+        // How far the light's circle is from the view center, in half view diagonals
+        float halfDiagonal = (float) Math.sqrt(view.viewportWidth * view.viewportWidth
+                + view.viewportHeight * view.viewportHeight) / 2;
+        float offCenter = (Vector2.dst(x, y, view.position.x, view.position.y) - distance) / halfDiagonal;
+        int halved = MathUtils.clamp(rays / 2, minRays, maxRays);
+        if (offCenter > OFF_CENTER || (offCenter > OFF_CENTER_RETURN && current == halved)) return halved;
+        return MathUtils.clamp(rays, minRays, maxRays);
+    }
+
+    /**
+     * Turns a light off while its circle (with its soft edge) is outside the ray camera's view, and back on once it
+     * comes into view. Lights that are off are skipped by the ray handler entirely.
+     *
+     * @param l The light
+     */
+    protected void cullLight(PointSource l) {
+        float reach = l.getDistance() + l.getSoftShadowLength();
+        float dx = Math.max(0, Math.abs(l.getX() - raycamera.position.x) - raycamera.viewportWidth / 2);
+        float dy = Math.max(0, Math.abs(l.getY() - raycamera.position.y) - raycamera.viewportHeight / 2);
+        boolean inView = dx * dx + dy * dy <= reach * reach;
+        if (l.isActive() != inView) l.setActive(inView);
+    }
+
+    /** Gives a light the rays its current radius and position call for */
+    protected void updateRays(PointSource l) {
+        int rays = rayCount(l);
+        if (rays != l.getRayNum()) l.setRays(rays);
+    }
+
+    /** @return the number of rays the active lights cast per update */
+    public int getRayCount() {
+        int n = rays(playerLight) + rays(exitLight);
+        for (PointSource l : flareLights.values()) n += rays(l);
+        for (PointSource l : fireballLights.values()) n += rays(l);
+        for (PointSource l : itemLights.values()) n += rays(l);
+        for (PointSource l : enemyLights.values()) n += rays(l);
+        for (PointSource l : animateOut.keySet()) n += rays(l);
+        return n;
+    }
+
+    /** Rays a light casts per update (none if it is off) */
+    private static int rays(PointSource l) {
+        return l.isActive() ? l.getRayNum() : 0;
     }
 
     protected void doAnimation() {
@@ -270,6 +404,20 @@ public class LightController {
                playerLight.setDistance(pLightCurrDist + playerLightOffset - (pLightCurrDist  - targetPlayerRadius) * 0.5f);
            }
        }
+        // Radii and positions changed, so the lights' rays and visibility may have too
+        updateView(playerLight);
+        updateView(exitLight);
+        for (PointSource l : flareLights.values()) updateView(l);
+        for (PointSource l : fireballLights.values()) updateView(l);
+        for (PointSource l : itemLights.values()) updateView(l);
+        for (PointSource l : enemyLights.values()) updateView(l);
+        for (PointSource l : animateOut.keySet()) updateView(l);
+    }
+
+    /** Culls a light against the view, and gives it the rays it needs there */
+    private void updateView(PointSource l) {
+        cullLight(l);
+        updateRays(l);
     }
 
     private void updateCamera() {
@@ -281,11 +429,13 @@ public class LightController {
     /**
      * Update all lights, call this before {@code draw()}.
      *
-     * @param flares A collection of flares.
-     * @param enemies A collection of enemies.
+     * @param flares The flare index.
+     * @param enemies The enemy index.
+     * @param fireballs The fireball index.
+     * @param items The item index.
      */
-    public void updateLights(Collection<FlareModel> flares, Collection<EnemyModel> enemies,
-                             Collection<FireballModel> fireballs, Collection<ItemModel> items) {
+    public void updateLights(SpatialHash<FlareModel> flares, SpatialHash<EnemyModel> enemies,
+                             SpatialHash<FireballModel> fireballs, SpatialHash<ItemModel> items) {
         // Update debug.
         if (debug) {
             rayhandler.setAmbientLight(.5f, .5f, .5f, 0);
@@ -299,15 +449,15 @@ public class LightController {
         targetPlayerRadius = player.getLightRadius();
         playerLight.setPosition(player.getTextureX(), player.getTextureY());
 
-        // Update flare lights.
-        updateLightsForList(flares, flareLights);
-        updateLightsForList(fireballs, fireballLights);
-        updateLightsForList(items, itemLights);
+        // Update flare lights. Flares stuck to a wall and idle items are static.
+        updateLightsForList(flares, flareLights, null, FlareModel::isStuck);
+        updateLightsForList(fireballs, fireballLights, null, null);
+        updateLightsForList(items, itemLights, null,
+                (i) -> i.getBodyType() == BodyDef.BodyType.StaticBody
+                        || i.getLinearVelocity().isZero(IDLE_SPEED * IDLE_SPEED)); // isZero takes a squared margin
 
         // Update enemy lights.
-        updateLightsForList(
-                enemies.stream().filter(EnemyModel::isActivated).collect(Collectors.toList()),
-                enemyLights);
+        updateLightsForList(enemies, enemyLights, EnemyModel::isActivated, null);
 
         doAnimation();
         rayhandler.update();
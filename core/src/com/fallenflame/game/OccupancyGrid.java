@@ -0,0 +1,373 @@
+package com.fallenflame.game;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IdentityMap;
+import com.fallenflame.game.enemies.EnemyGhostModel;
+import com.fallenflame.game.enemies.EnemyModel;
+import com.fallenflame.game.enemies.EnemyTypeBModel;
+import com.fallenflame.game.physics.obstacle.BoxObstacle;
+import com.fallenflame.game.physics.obstacle.WheelObstacle;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Occupancy of a level (walls, trees, the player and enemies), rasterized once at the finest resolution any grid of
+ * the level needs.
+ *
+ * LevelModels are coarser views of this grid (see LevelModel.initialize(OccupancyGrid, float)). Each of their tiles
+ * covers a square block of cells and has a flag set iff one of its cells does. Walls and trees are rasterized into
+ * the cells once, and every wall or tree cell is pushed to the views. Characters are kept as footprints, the
+ * rectangle of cells they cover; a view's footprint is that rectangle divided down to its tiles, so it is only
+ * touched when the character crosses one of its tile borders. Either way the occupancy is computed once per level
+ * rather than once per LevelModel, and the path and fog grids can never disagree.
+ *
+ * The grid also holds a distance transform of the walls and trees (see getMaxClearance()), from which the path grid
+ * finds the tiles too narrow for its enemies.
+ */
+public class OccupancyGrid {
+    // Cell flag bits (also the tile flag bits of LevelModel)
+    /** Has wall? */
+    static final byte WALL = 1;
+    /** Has tree? */
+    static final byte TREE = 1 << 1;
+    /** Has enemy? */
+    static final byte ENEMY = 1 << 2;
+    /** Has player? */
+    static final byte PLAYER = 1 << 3;
+    /** Has shooter or ghost enemy (for fog) */
+    static final byte LESS_FOG = 1 << 4;
+    /** Number of flag bits */
+    static final int NUM_FLAGS = 5;
+
+    /** Clipped rectangle of cells a character was last stamped on, with the flags it stamped */
+    private static class Footprint {
+        int x0, y0, x1, y1;
+        byte flags;
+        /** Last update() the character was stamped in */
+        int seen;
+        /** The rectangle of tiles it covers in each view (x0, y0, x1, y1 per view) */
+        int[] viewRects;
+    }
+
+    /** Cell size (cells are square so this is x and y) */
+    private final float cellSize;
+    /** Width and height of screen */
+    private final float width;
+    private final float height;
+    /** Number of cell columns and rows */
+    private final int gridWidth;
+    private final int gridHeight;
+
+    /** Wall and tree flag bits of each cell, indexed by x + y * gridWidth */
+    private final byte[] cells;
+    /** Distance from the center of each cell to the nearest wall or tree cell or the level edge, indexed like
+     * cells (0 for wall and tree cells) */
+    private final float[] clearance;
+    /** Footprint each character was last stamped with */
+    private final IdentityMap<WheelObstacle, Footprint> footprints = new IdentityMap<>();
+    /** Number of update() calls, used to find characters that were not stamped in the last one */
+    private int tick;
+
+    /** Level models that view this grid */
+    private final Array<LevelModel> views = new Array<>();
+
+    /**
+     * Creates the occupancy grid of a level and rasterizes its walls and trees.
+     *
+     * @param bounds The level bounds
+     * @param walls The walls of the level
+     * @param trees The trees of the level
+     * @param cellSize The cell size. Every view's tile size must be a whole multiple of it
+     */
+    public OccupancyGrid(Rectangle bounds, List<WallModel> walls, List<TreeModel> trees, float cellSize) {
+        this.cellSize = cellSize;
+        width = bounds.getWidth();
+        height = bounds.getHeight();
+        gridWidth = (int) Math.ceil(width / cellSize);
+        gridHeight = (int) Math.ceil(height / cellSize);
+        cells = new byte[gridWidth * gridHeight];
+
+        for(WallModel w : walls) {
+            setBoxObstacleInGrid(w, WALL);
+        }
+        for(TreeModel t : trees) {
+            setBoxObstacleInGrid(t, TREE);
+        }
+        clearance = new float[cells.length];
+        computeClearance();
+    }
+
+    /** @return the cell size */
+    public float getCellSize() { return cellSize; }
+
+    /** @return the width of the screen */
+    public float getWidth() { return width; }
+
+    /** @return the height of the screen */
+    public float getHeight() { return height; }
+
+    /** @return the number of cells */
+    int getCellCount() { return cells.length; }
+
+    /** @return the wall and tree flag bits of a cell, by index x + y * grid width */
+    byte getCellFlags(int idx) { return cells[idx]; }
+
+    /**
+     * Returns the largest clearance of any cell in a rectangle of cells: the radius of the largest circle that can
+     * be centered somewhere in the rectangle without touching a wall or tree.
+     *
+     * @param x0 Left cell column
+     * @param y0 Bottom cell row
+     * @param x1 Right cell column (clipped to the grid)
+     * @param y1 Top cell row (clipped to the grid)
+     * @return the clearance, 0 if every cell is a wall or tree cell
+     */
+    float getMaxClearance(int x0, int y0, int x1, int y1) {
+        float best = 0;
+        for (int y = Math.max(0, y0); y <= Math.min(gridHeight - 1, y1); y++) {
+            for (int x = Math.max(0, x0); x <= Math.min(gridWidth - 1, x1); x++) {
+                best = Math.max(best, clearance[x + y * gridWidth]);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds a level model that views this grid, and replays the walls, trees and footprints into it.
+     *
+     * @param view The view. Its tiles must already be allocated
+     */
+    void addView(LevelModel view) {
+        views.add(view);
+        for (int idx = 0; idx < cells.length; idx++) {
+            if ((cells[idx] & WALL) != 0) view.coverCell(idx % gridWidth, idx / gridWidth, WALL, 1);
+            if ((cells[idx] & TREE) != 0) view.coverCell(idx % gridWidth, idx / gridWidth, TREE, 1);
+        }
+        for (Footprint f : footprints.values()) {
+            int[] rects = new int[4 * views.size];
+            System.arraycopy(f.viewRects, 0, rects, 0, f.viewRects.length);
+            f.viewRects = rects;
+            emptyRect(rects, views.size - 1);
+            moveViewFootprint(f, views.size - 1);
+        }
+    }
+
+    /**
+     * Moves the footprints of the player and enemies to the cells they cover now, and lifts the footprints of
+     * characters that are gone (such as enemies removed from the level).
+     *
+     * @param p The player
+     * @param em The enemies
+     */
+    public void update(PlayerModel p, Collection<EnemyModel> em) {
+        tick++;
+        placePlayer(p);
+        for (EnemyModel e : em) {
+            placeEnemy(e);
+        }
+        IdentityMap.Entries<WheelObstacle, Footprint> entries = footprints.entries();
+        while (entries.hasNext()) {
+            Footprint f = entries.next().value;
+            if (f.seen == tick) continue;
+            liftFootprint(f);
+            entries.remove();
+        }
+    }
+
+    /** Marks the cells currently covered by the player */
+    public void placePlayer(PlayerModel player) { stampFootprint(player, PLAYER); }
+
+    /** Marks the cells currently covered by an enemy */
+    public void placeEnemy(EnemyModel enemy) {
+        boolean lessFog = enemy.getClass() == EnemyTypeBModel.class || enemy.getClass() == EnemyGhostModel.class;
+        stampFootprint(enemy, lessFog ? (byte) (ENEMY | LESS_FOG) : ENEMY);
+    }
+
+    /** Clears the cells previously covered by a character */
+    public void removeCharacter(WheelObstacle obs) {
+        Footprint f = footprints.remove(obs);
+        if (f != null) liftFootprint(f);
+    }
+
+    /**
+     * Set cells currently covered by BoxObstacle obs
+     * @param obs Box obstacle
+     * @param flag Type of obstacle (WALL or TREE)
+     */
+    private void setBoxObstacleInGrid(BoxObstacle obs, byte flag) {
+        for(int x = screenToCell(obs.getX() - obs.getWidth()/2);
+            x <= screenToCell(obs.getX() + obs.getWidth()/2); x++) {
+            for(int y = screenToCell(obs.getY() - obs.getHeight()/2);
+                y <= screenToCell(obs.getY() + obs.getHeight()/2); y++) {
+                if (x < 0 || y < 0 || x >= gridWidth || y >= gridHeight) continue;
+                int idx = x + y * gridWidth;
+                if ((cells[idx] & flag) != 0) continue;
+                cells[idx] |= flag;
+                for (int v = 0; v < views.size; v++) {
+                    views.get(v).coverCell(x, y, flag, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves a character's footprint to the cells it covers now.
+     *
+     * Views are only touched when the footprint crosses one of their tile borders, and then only on the tiles that
+     * entered or left it.
+     *
+     * @param obs The character
+     * @param flags The dynamic flags it sets (PLAYER, ENEMY, LESS_FOG)
+     */
+    private void stampFootprint(WheelObstacle obs, byte flags) {
+        Footprint f = footprints.get(obs);
+        if (f == null) {
+            f = new Footprint();
+            f.x0 = f.y0 = 0;
+            f.x1 = f.y1 = -1; // empty
+            f.flags = flags;
+            f.viewRects = new int[4 * views.size];
+            for (int v = 0; v < views.size; v++) {
+                emptyRect(f.viewRects, v);
+            }
+            footprints.put(obs, f);
+        }
+        f.seen = tick;
+        int x0 = Math.max(0, screenToCell(obs.getX() - obs.getRadius()));
+        int x1 = Math.min(gridWidth - 1, screenToCell(obs.getX() + obs.getRadius()));
+        int y0 = Math.max(0, screenToCell(obs.getY() - obs.getRadius()));
+        int y1 = Math.min(gridHeight - 1, screenToCell(obs.getY() + obs.getRadius()));
+        if (x0 == f.x0 && x1 == f.x1 && y0 == f.y0 && y1 == f.y1 && flags == f.flags) return;
+
+        if (flags != f.flags) liftFootprint(f);
+        f.x0 = x0;
+        f.y0 = y0;
+        f.x1 = x1;
+        f.y1 = y1;
+        f.flags = flags;
+        for (int v = 0; v < views.size; v++) {
+            moveViewFootprint(f, v);
+        }
+    }
+
+    /**
+     * Computes the clearance of every cell from the wall and tree cells.
+     *
+     * This is an exact Euclidean distance transform between cell centers (a 1D lower envelope of parabolas along
+     * each column, then along each row, linear in the number of cells). The distance to the nearest blocked cell's
+     * edge is bounded below by its center distance less half a cell diagonal, so the clearance errs on the narrow
+     * side by at most that much.
+     */
+    private void computeClearance() {
+        int w = gridWidth, h = gridHeight, n = Math.max(w, h);
+        double far = (double) w * w + (double) h * h + 1;
+        double[] d2 = new double[cells.length];
+        for (int idx = 0; idx < cells.length; idx++) {
+            d2[idx] = (cells[idx] & (WALL | TREE)) != 0 ? 0 : far;
+        }
+        double[] f = new double[n], d = new double[n], z = new double[n + 1];
+        int[] v = new int[n];
+        for (int x = 0; x < w; x++) {
+            for (int y = 0; y < h; y++) f[y] = d2[x + y * w];
+            distanceTransform(f, h, d, v, z);
+            for (int y = 0; y < h; y++) d2[x + y * w] = d[y];
+        }
+        for (int y = 0; y < h; y++) {
+            System.arraycopy(d2, y * w, f, 0, w);
+            distanceTransform(f, w, d, v, z);
+            System.arraycopy(d, 0, d2, y * w, w);
+        }
+
+        double halfDiagonal = Math.sqrt(0.5);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int idx = x + y * w;
+                if ((cells[idx] & (WALL | TREE)) != 0) continue;
+                double edge = Math.min(Math.min(x, w - 1 - x), Math.min(y, h - 1 - y)) + 0.5;
+                double wall = d2[idx] >= far ? edge : Math.sqrt(d2[idx]) - halfDiagonal;
+                clearance[idx] = (float) (Math.max(0, Math.min(edge, wall)) * cellSize);
+            }
+        }
+    }
+
+    /**
+     * Squared distance transform of a row of samples: d[q] = min over p of (q - p)^2 + f[p].
+     *
+     * @param f Input samples (0 at sources, a large value elsewhere)
+     * @param n Number of samples
+     * @param d Output
+     * @param v Scratch: parabola vertices of the lower envelope (at least n long)
+     * @param z Scratch: boundaries between envelope parabolas (at least n + 1 long)
+     */
+    private static void distanceTransform(double[] f, int n, double[] d, int[] v, double[] z) {
+        int k = 0;
+        v[0] = 0;
+        z[0] = Double.NEGATIVE_INFINITY;
+        z[1] = Double.POSITIVE_INFINITY;
+        for (int q = 1; q < n; q++) {
+            double s = ((f[q] + q * q) - (f[v[k]] + v[k] * v[k])) / (2 * q - 2 * v[k]);
+            while (s <= z[k]) {
+                k--;
+                s = ((f[q] + q * q) - (f[v[k]] + v[k] * v[k])) / (2 * q - 2 * v[k]);
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Double.POSITIVE_INFINITY;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) k++;
+            d[q] = (double) (q - v[k]) * (q - v[k]) + f[v[k]];
+        }
+    }
+
+    /** Moves the footprint of a view to the tiles holding the footprint's cells */
+    private void moveViewFootprint(Footprint f, int v) {
+        LevelModel view = views.get(v);
+        int[] r = f.viewRects;
+        int k = 4 * v;
+        int x0, y0, x1, y1;
+        if (f.x1 < f.x0 || f.y1 < f.y0) {
+            x0 = y0 = 0;
+            x1 = y1 = -1;
+        } else {
+            x0 = view.cellToTile(f.x0);
+            y0 = view.cellToTile(f.y0);
+            x1 = view.cellToTile(f.x1);
+            y1 = view.cellToTile(f.y1);
+        }
+        if (x0 == r[k] && y0 == r[k + 1] && x1 == r[k + 2] && y1 == r[k + 3]) return;
+        view.coverTiles(r[k], r[k + 1], r[k + 2], r[k + 3], f.flags, -1, x0, y0, x1, y1);
+        view.coverTiles(x0, y0, x1, y1, f.flags, 1, r[k], r[k + 1], r[k + 2], r[k + 3]);
+        r[k] = x0;
+        r[k + 1] = y0;
+        r[k + 2] = x1;
+        r[k + 3] = y1;
+    }
+
+    /** Removes a footprint from every view */
+    private void liftFootprint(Footprint f) {
+        int[] r = f.viewRects;
+        for (int v = 0; v < views.size; v++) {
+            int k = 4 * v;
+            views.get(v).coverTiles(r[k], r[k + 1], r[k + 2], r[k + 3], f.flags, -1, 0, 0, -1, -1);
+            emptyRect(r, v);
+        }
+        f.x0 = f.y0 = 0;
+        f.x1 = f.y1 = -1;
+    }
+
+    /** Sets the rectangle of a view to the empty rectangle */
+    private static void emptyRect(int[] rects, int v) {
+        rects[4 * v] = rects[4 * v + 1] = 0;
+        rects[4 * v + 2] = rects[4 * v + 3] = -1;
+    }
+
+    /** @return the cell index for a screen position coordinate */
+    private int screenToCell(float f) {
+        return (int)(f / cellSize);
+    }
+}
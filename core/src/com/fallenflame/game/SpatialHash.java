@@ -0,0 +1,259 @@
+package com.fallenflame.game;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ObjectIntMap;
+
+import java.util.Arrays;
+
+/**
+ * Uniform-grid spatial index of moving entities (enemies, flares, fireballs, items), each kept as a disk.
+ *
+ * The level is cut into square cells; every entity is linked into the cell holding its center (entities outside the
+ * level go in the nearest border cell). A query visits the cells its area could reach, grown by the largest disk in
+ * the index, and tests the entities found there exactly. Entities are stored densely, so get() walks them in
+ * insertion order, and the cell lists are int links into those arrays, so neither updates nor queries allocate once
+ * the arrays have grown to the level's entity count.
+ *
+ * LevelController rebuilds each index after every physics step and keeps it in step with its entity lists until the
+ * next one. Queries share scratch space, so they must be made from the main thread.
+ *
+ * @param <T> The entity type
+ */
+public class SpatialHash<T> {
+    /** Side length of a cell */
+    private final float cellSize;
+    /** Lower left corner of the indexed area */
+    private final float originX, originY;
+    /** Number of cell columns and rows */
+    private final int columns, rows;
+    /** First entity slot of each cell, or -1 */
+    private final int[] cellHead;
+
+    /** Entities, their disks, their cell, and the next slot in their cell's list (-1 at the end), by slot */
+    private Object[] items = new Object[16];
+    private float[] xs = new float[16];
+    private float[] ys = new float[16];
+    private float[] radii = new float[16];
+    private int[] cellOf = new int[16];
+    private int[] next = new int[16];
+    /** Number of slots in use */
+    private int size;
+    /** Slot of each entity */
+    private final ObjectIntMap<T> slotOf = new ObjectIntMap<>();
+    /** Largest disk radius since the last clear() */
+    private float maxRadius;
+
+    /** Slots found by the current query, sorted back into insertion order before they are returned */
+    private final IntArray found = new IntArray();
+
+    /**
+     * Creates an empty index over the given area.
+     *
+     * @param bounds The area the entities move in
+     * @param cellSize Side length of a cell. Around the typical query radius works best
+     */
+    public SpatialHash(Rectangle bounds, float cellSize) {
+        this.cellSize = cellSize;
+        originX = bounds.x;
+        originY = bounds.y;
+        columns = Math.max(1, (int) Math.ceil(bounds.width / cellSize));
+        rows = Math.max(1, (int) Math.ceil(bounds.height / cellSize));
+        cellHead = new int[columns * rows];
+        Arrays.fill(cellHead, -1);
+    }
+
+    /** Removes every entity */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            cellHead[cellOf[i]] = -1;
+            items[i] = null;
+        }
+        size = 0;
+        slotOf.clear();
+        maxRadius = 0;
+    }
+
+    /** @return the number of entities */
+    public int size() { return size; }
+
+    /**
+     * Returns an entity by position. Positions run from 0 to size() - 1 in insertion order (until a remove(), which
+     * moves the last entity into the gap).
+     *
+     * @param i The position
+     * @return the entity
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int i) { return (T) items[i]; }
+
+    /** @return whether the entity is in the index */
+    public boolean contains(T item) { return slotOf.containsKey(item); }
+
+    /**
+     * Adds an entity.
+     *
+     * @param item The entity (must not be in the index already)
+     * @param x Center x-coor
+     * @param y Center y-coor
+     * @param radius Radius of the entity's disk (such as its light radius)
+     */
+    public void insert(T item, float x, float y, float radius) {
+        assert !slotOf.containsKey(item);
+        if (size == items.length) grow();
+        int slot = size++;
+        int cell = cellAt(x, y);
+        items[slot] = item;
+        xs[slot] = x;
+        ys[slot] = y;
+        radii[slot] = radius;
+        cellOf[slot] = cell;
+        // Append, so each cell list stays in insertion order
+        next[slot] = -1;
+        if (cellHead[cell] < 0) {
+            cellHead[cell] = slot;
+        } else {
+            int s = cellHead[cell];
+            while (next[s] >= 0) s = next[s];
+            next[s] = slot;
+        }
+        slotOf.put(item, slot);
+        maxRadius = Math.max(maxRadius, radius);
+    }
+
+    /**
+     * Removes an entity. The last entity takes its position.
+     *
+     * @param item The entity
+     * @return whether it was in the index
+     */
+    public boolean remove(T item) {
+        int slot = slotOf.remove(item, -1);
+        if (slot < 0) return false;
+        unlink(slot);
+        int last = --size;
+        if (slot != last) {
+            // Move the last entity into the gap and repoint the link to it
+            int cell = cellOf[last];
+            if (cellHead[cell] == last) {
+                cellHead[cell] = slot;
+            } else {
+                int s = cellHead[cell];
+                while (next[s] != last) s = next[s];
+                next[s] = slot;
+            }
+            items[slot] = items[last];
+            xs[slot] = xs[last];
+            ys[slot] = ys[last];
+            radii[slot] = radii[last];
+            cellOf[slot] = cell;
+            next[slot] = next[last];
+            slotOf.put(get(slot), slot);
+        }
+        items[last] = null;
+        return true;
+    }
+
+    /**
+     * Finds the entities whose disk reaches a circle.
+     *
+     * @param x Circle center x-coor
+     * @param y Circle center y-coor
+     * @param r Circle radius (0 for the entities whose disk covers the point)
+     * @param out Cleared, then filled with the entities found, in insertion order
+     * @return the number of entities found
+     */
+    public int queryRadius(float x, float y, float r, Array<T> out) {
+        found.clear();
+        float reach = r + maxRadius;
+        int cx0 = column(x - reach), cx1 = column(x + reach);
+        int cy0 = row(y - reach), cy1 = row(y + reach);
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int s = cellHead[cx + cy * columns]; s >= 0; s = next[s]) {
+                    float dx = xs[s] - x, dy = ys[s] - y, d = r + radii[s];
+                    if (dx * dx + dy * dy <= d * d) found.add(s);
+                }
+            }
+        }
+        return collect(out);
+    }
+
+    /**
+     * Finds the entities whose disk reaches an axis-aligned box.
+     *
+     * @param x0 Left edge
+     * @param y0 Bottom edge
+     * @param x1 Right edge
+     * @param y1 Top edge
+     * @param out Cleared, then filled with the entities found, in insertion order
+     * @return the number of entities found
+     */
+    public int queryAABB(float x0, float y0, float x1, float y1, Array<T> out) {
+        found.clear();
+        int cx0 = column(x0 - maxRadius), cx1 = column(x1 + maxRadius);
+        int cy0 = row(y0 - maxRadius), cy1 = row(y1 + maxRadius);
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int s = cellHead[cx + cy * columns]; s >= 0; s = next[s]) {
+                    // Distance from the disk center to the nearest point of the box
+                    float dx = Math.max(0, Math.max(x0 - xs[s], xs[s] - x1));
+                    float dy = Math.max(0, Math.max(y0 - ys[s], ys[s] - y1));
+                    if (dx * dx + dy * dy <= radii[s] * radii[s]) found.add(s);
+                }
+            }
+        }
+        return collect(out);
+    }
+
+    /** Moves the found slots into out, in insertion order (there are only a few, so insertion sort) */
+    private int collect(Array<T> out) {
+        out.clear();
+        int[] f = found.items;
+        for (int i = 1; i < found.size; i++) {
+            int s = f[i], j = i;
+            while (j > 0 && f[j - 1] > s) {
+                f[j] = f[j - 1];
+                j--;
+            }
+            f[j] = s;
+        }
+        for (int i = 0; i < found.size; i++) {
+            out.add(get(f[i]));
+        }
+        return found.size;
+    }
+
+    /** Unlinks a slot from its cell's list */
+    private void unlink(int slot) {
+        int cell = cellOf[slot];
+        if (cellHead[cell] == slot) {
+            cellHead[cell] = next[slot];
+            return;
+        }
+        int s = cellHead[cell];
+        while (next[s] != slot) s = next[s];
+        next[s] = next[slot];
+    }
+
+    private int cellAt(float x, float y) { return column(x) + row(y) * columns; }
+
+    private int column(float x) {
+        return Math.min(columns - 1, Math.max(0, (int) Math.floor((x - originX) / cellSize)));
+    }
+
+    private int row(float y) {
+        return Math.min(rows - 1, Math.max(0, (int) Math.floor((y - originY) / cellSize)));
+    }
+
+    private void grow() {
+        int n = items.length * 2;
+        items = Arrays.copyOf(items, n);
+        xs = Arrays.copyOf(xs, n);
+        ys = Arrays.copyOf(ys, n);
+        radii = Arrays.copyOf(radii, n);
+        cellOf = Arrays.copyOf(cellOf, n);
+        next = Arrays.copyOf(next, n);
+    }
+}
@@ -1,16 +1,55 @@
 package com.fallenflame.game.enemies;
 
+import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
+import com.badlogic.gdx.utils.Array;
 import com.fallenflame.game.FlareModel;
+import com.fallenflame.game.IlluminationGrid;
 import com.fallenflame.game.LevelModel;
 import com.fallenflame.game.PlayerModel;
+import com.fallenflame.game.SpatialHash;
 
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import java.util.Random;
 
 public abstract class AIController {
 
+    /**
+     * Algorithm used to plan a path to the goal tile.
+     */
+    public enum PlannerType {
+        /** Uninformed 8-way breadth first search (every move costs the same). The default */
+        BFS,
+        /** A* with diagonal moves costing sqrt(2) and an octile distance heuristic */
+        ASTAR,
+        /** gdx-ai IndexedAStarPathFinder, searched a slice at a time by the level's TimeSlicedPathPlanner */
+        GDX_AI,
+        /** Hierarchical A* over the level's ClusterGraph, refining only the leading segment of the path */
+        HPA,
+    }
+
+    // Constants
+    /** Number of ticks between re-plans of a controller, when the AI budget allows */
+    public static final int REPLAN_INTERVAL = 5;
+    /** Re-plan priorities used by the AIScheduler (higher is planned first) */
+    public static final int PRIORITY_IDLE = 0;
+    public static final int PRIORITY_INVESTIGATE = 1;
+    public static final int PRIORITY_CHASE = 2;
+    /** Assumed cost (in nanoseconds) of a re-plan before one has been measured */
+    private static final long DEFAULT_PLAN_COST = 50000L;
+    /** Weight of the newest measurement in the running plan cost estimate */
+    private static final float PLAN_COST_SMOOTHING = 0.25f;
+    /** Furthest (in tiles) a goal on a blocked tile is moved to reach a tile the enemy can get to */
+    protected static final int MAX_GOAL_SNAP = 8;
+    /** Tile offsets of the eight movement directions, in the order the path finder prefers them */
+    protected static final int[] MOVE_DX = {1, 0, -1, 0, -1, 1, -1, 1};
+    protected static final int[] MOVE_DY = {0, 1, 0, -1, -1, -1, 1, 1};
+    /** Control code for each of the movement directions above */
+    protected static final int[] MOVE_CTRL = {
+            EnemyModel.CONTROL_MOVE_RIGHT, EnemyModel.CONTROL_MOVE_UP,
+            EnemyModel.CONTROL_MOVE_LEFT, EnemyModel.CONTROL_MOVE_DOWN,
+            EnemyModel.CONTROL_MOVE_DOWN_LEFT, EnemyModel.CONTROL_MOVE_DOWN_RIGHT,
+            EnemyModel.CONTROL_MOVE_UP_LEFT, EnemyModel.CONTROL_MOVE_UP_RIGHT};
+
     // Instance Attributes
     /** The enemy being controlled by this AIController */
     protected EnemyModel enemy;
@@ -20,10 +59,38 @@ public abstract class AIController {
     protected LevelModel level;
     /** The enemy's next action --> control code */
     private int move;
-    /** The number of ticks since we started this controller */
-    private long ticks;
-    /** A randomID to stagger the amount of processing of each enemy per frame */
-    private int randomID;
+    /** The number of ticks since this controller last re-planned */
+    private int ticksSinceReplan;
+    /** Running estimate of the time (in nanoseconds) one re-plan takes, state and move together */
+    private long planCost;
+    /** Time spent in updateState() for the current re-plan */
+    private long stateTime;
+    /** Algorithm used to plan toward the goal tile */
+    private PlannerType plannerType;
+    /** A* planner (only created if this controller uses A*) */
+    private AStarPlanner aStarPlanner;
+    /** Level-wide abstract graph used by HPA (null until the level hands it out) */
+    private ClusterGraph clusterGraph;
+    /** HPA* planner over clusterGraph (only created if this controller uses HPA and has the graph) */
+    private HierarchicalPlanner hierarchicalPlanner;
+    /** Level-wide time-sliced planner (used by GDX_AI; null until the level hands it out) */
+    private TimeSlicedPathPlanner slicedPlanner;
+    /** This controller's outstanding or last finished time-sliced request */
+    private TimeSlicedPathPlanner.Request slicedRequest;
+    /** Goal tile of slicedRequest (-1 if it has never been submitted) */
+    private int slicedGoalX = -1;
+    private int slicedGoalY = -1;
+    /** Level-wide index of the flares by light disk (null until the level hands it out) */
+    private SpatialHash<FlareModel> flareIndex;
+    /** Level-wide lit tiles, used to rule out light checks cheaply (null until the level hands it out) */
+    private IlluminationGrid illumination;
+    /** Flares whose light covers the enemy, found by the last findFlareInRange() */
+    private final Array<FlareModel> nearbyFlares = new Array<>();
+    /** This controller's own visited/goal marks and BFS frontier, so searches do not share LevelModel state */
+    private LevelModel.SearchScratch scratch;
+    /** Goal tile marked during the current re-plan (-1 if there is none) */
+    protected int goalX;
+    protected int goalY;
 
     /**
      * Creates an AIController for the enemy with the given id.
@@ -37,30 +104,151 @@ public abstract class AIController {
         this.level = level;
         this.player = player;
         move  = EnemyModel.CONTROL_NO_ACTION;
-        ticks = 0;
+        planCost = DEFAULT_PLAN_COST;
 
+        // Stagger the first re-plans of different enemies
         Random random = new Random(id);
-        randomID = random.nextInt();
+        ticksSinceReplan = random.nextInt(REPLAN_INTERVAL);
+        setPlannerType(PlannerType.BFS);
     }
 
     /**
-     * Returns the action selected by this InputController
+     * Returns the algorithm used to plan a path to the goal tile
      *
-     * @return the action selected by this InputController
+     * @return the algorithm used to plan a path to the goal tile
      */
-    public int getAction(){
-        ticks++;
-
-        if ((randomID + ticks) % 5 == 0) {
-            // Clear LevelModel for processing
-            level.clearAllTiles();
-            // Process the FSM
-            changeStateIfApplicable();
-            // Pathfinding
-            markGoalTiles();
-            move = getMoveAlongPathToGoalTile();
-        }
+    public PlannerType getPlannerType() { return plannerType; }
+
+    /**
+     * Sets the algorithm used to plan a path to the goal tile
+     *
+     * @param type the algorithm used to plan a path to the goal tile
+     */
+    public void setPlannerType(PlannerType type) {
+        plannerType = type;
+        // GDX_AI and HPA fall back to A* until the level hands out its shared planners (GDX_AI also for goals the
+        // graph cannot enter)
+        if (type != PlannerType.BFS && aStarPlanner == null)
+            aStarPlanner = new AStarPlanner(level);
+        if (type == PlannerType.GDX_AI && slicedRequest == null)
+            slicedRequest = new TimeSlicedPathPlanner.Request();
+        if (type == PlannerType.HPA && hierarchicalPlanner == null && clusterGraph != null)
+            hierarchicalPlanner = new HierarchicalPlanner(clusterGraph);
+    }
+
+    /**
+     * Sets the level-wide flare index, so flare checks only look at flares whose light covers the enemy.
+     *
+     * @param index the level's flare index
+     */
+    public void setFlareIndex(SpatialHash<FlareModel> index) { flareIndex = index; }
+
+    /**
+     * Sets the level-wide illumination grid. The enemy is only tested against the player's and flares' light if its
+     * tile is reached by one.
+     *
+     * @param grid the level's illumination grid
+     */
+    public void setIllumination(IlluminationGrid grid) { illumination = grid; }
+
+    /**
+     * Sets the level-wide abstract graph used by the HPA planner type.
+     *
+     * @param graph the level's cluster graph
+     */
+    public void setClusterGraph(ClusterGraph graph) {
+        clusterGraph = graph;
+        hierarchicalPlanner = plannerType == PlannerType.HPA ? new HierarchicalPlanner(graph) : null;
+    }
+
+    /**
+     * Hands the level's patrol route tables to controllers that patrol.
+     * Does nothing unless extending class overwrites this function.
+     *
+     * @param routes the level's patrol route tables
+     */
+    public void setPatrolRoutes(PatrolRoutes routes) { }
+
+    /**
+     * Sets the level-wide time-sliced planner used by the GDX_AI planner type.
+     *
+     * @param planner the level's time-sliced planner
+     */
+    public void setSlicedPlanner(TimeSlicedPathPlanner planner) {
+        slicedPlanner = planner;
+        slicedGoalX = slicedGoalY = -1;
+    }
+
+    /**
+     * Advances this controller by a tick. Called every tick, whether or not the controller re-plans.
+     */
+    public void tick() {
+        ticksSinceReplan++;
+    }
+
+    /** @return the number of ticks since this controller last re-planned */
+    public int getTicksSinceReplan() { return ticksSinceReplan; }
+
+    /** @return whether this controller has waited at least REPLAN_INTERVAL ticks since its last re-plan */
+    public boolean isDueForReplan() { return ticksSinceReplan >= REPLAN_INTERVAL; }
+
+    /**
+     * Returns how urgently this controller should re-plan, as one of the PRIORITY_* constants.
+     * Defaults to PRIORITY_IDLE unless extending class overwrites this function.
+     *
+     * @return the re-plan priority
+     */
+    public int getPlanPriority() { return PRIORITY_IDLE; }
+
+    /** @return the squared distance from the enemy to the player */
+    public float getDistanceToPlayer2() {
+        float dx = enemy.getX() - player.getX(), dy = enemy.getY() - player.getY();
+        return dx * dx + dy * dy;
+    }
+
+    /** @return the running estimate of the time (in nanoseconds) one re-plan of this controller takes */
+    public long getPlanCost() { return planCost; }
+
+    /**
+     * Re-plans this controller's state: runs the FSM and marks goal tiles.
+     *
+     * This may touch the enemy's physics body, so it must run on the main thread. It must be followed by
+     * updateMove() before getCurrentAction() is called.
+     */
+    public void updateState() {
+        long start = System.nanoTime();
+        ticksSinceReplan = 0;
+
+        // Clear search scratch for processing
+        if (scratch == null || scratch.size() != level.getTileGridWidth() * level.getTileGridHeight())
+            scratch = level.createSearchScratch();
+        scratch.clear();
+        goalX = goalY = -1;
+        // Process the FSM
+        changeStateIfApplicable();
+        // Mark goal tiles for pathfinding
+        markGoalTiles();
+        stateTime = System.nanoTime() - start;
+    }
 
+    /**
+     * Plans the move toward the goal tiles marked by updateState().
+     *
+     * Only reads the level and writes this controller's own state, so controllers may run this concurrently.
+     */
+    public void updateMove() {
+        long start = System.nanoTime();
+        move = getMoveAlongPathToGoalTile();
+        long cost = stateTime + System.nanoTime() - start;
+        planCost += (long) ((cost - planCost) * PLAN_COST_SMOOTHING);
+    }
+
+    /**
+     * Returns the action from the most recent plan, combined with any other actions
+     *
+     * @return the action selected by this InputController
+     */
+    public int getCurrentAction() {
         int action = move;
 
         action |= getOtherAction();
@@ -87,84 +275,212 @@ public abstract class AIController {
      */
     protected abstract void markGoalTiles();
 
+    /**
+     * Marks the tile as this controller's goal tile.
+     *
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     */
+    protected void setGoalTile(int x, int y) {
+        if (!level.inBounds(x, y)) return;
+        // Reachability is a region lookup: a walkable goal in another region is dropped, and a blocked goal is moved
+        // to the nearest tile of the enemy's region, so the planners never flood the map looking for it
+        int startRegion = level.getRegion(level.screenToTile(enemy.getX()), level.screenToTile(enemy.getY()));
+        if (startRegion >= 0) {
+            if (level.isWalkable(x, y)) {
+                if (level.getRegion(x, y) != startRegion) return;
+            } else {
+                int snapped = level.findNearestInRegion(x, y, startRegion, MAX_GOAL_SNAP);
+                if (snapped < 0) return;
+                x = snapped % level.getTileGridWidth();
+                y = snapped / level.getTileGridWidth();
+            }
+        }
+        goalX = x;
+        goalY = y;
+        scratch.setGoal(level.tileIndex(x, y));
+    }
+
+    /**
+     * Returns whether the search may step onto a tile: it must be walkable or one of this controller's goals.
+     *
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @return whether the tile is available for movement
+     */
+    private boolean isSafe(int x, int y) {
+        return level.isWalkable(x, y) || (level.inBounds(x, y) && scratch.isGoal(level.tileIndex(x, y)));
+    }
+
     /**
      * Get enemy movement toward goal
      *
      * @return a movement direction that moves towards a goal tile or NO_ACTION.
      */
     protected int getMoveAlongPathToGoalTile() {
+        // No goal (or an unreachable one, see setGoalTile())
+        if (goalX < 0) return EnemyModel.CONTROL_NO_ACTION;
         int startX = level.screenToTile(enemy.getX());
         int startY = level.screenToTile(enemy.getY());
 
-        // Initialize queue with movement options
-        Queue<TileIndex> queue = new LinkedList<TileIndex>();
-        if(level.isSafe(startX+1, startY)){
-            queue.add(new TileIndex(startX+1, startY, EnemyModel.CONTROL_MOVE_RIGHT));}
-        if(level.isSafe(startX, startY+1))
-            queue.add(new TileIndex(startX, startY+1, EnemyModel.CONTROL_MOVE_UP));
-        if(level.isSafe(startX-1, startY))
-            queue.add(new TileIndex(startX-1, startY, EnemyModel.CONTROL_MOVE_LEFT));
-        if(level.isSafe(startX, startY-1))
-            queue.add(new TileIndex(startX, startY-1, EnemyModel.CONTROL_MOVE_DOWN));
-        if(level.isSafe(startX-1, startY-1))
-            queue.add(new TileIndex(startX-1, startY-1, EnemyModel.CONTROL_MOVE_DOWN_LEFT));
-        if(level.isSafe(startX+1, startY-1))
-            queue.add(new TileIndex(startX+1, startY-1, EnemyModel.CONTROL_MOVE_DOWN_RIGHT));
-        if(level.isSafe(startX-1, startY+1))
-            queue.add(new TileIndex(startX-1, startY+1, EnemyModel.CONTROL_MOVE_UP_LEFT));
-        if(level.isSafe(startX+1, startY+1))
-            queue.add(new TileIndex(startX+1, startY+1, EnemyModel.CONTROL_MOVE_UP_RIGHT));
-
-        while(queue.peek() != null){
-            TileIndex curr = queue.poll();
-            // Already visited
-            if(level.isVisited(curr.x, curr.y))
-                continue;
-            // Set visited
-            level.setVisited(curr.x, curr.y);
+        if (plannerType == PlannerType.ASTAR) {
+            int move = aStarPlanner.findFirstMove(startX, startY, goalX, goalY);
+            return move < 0 ? EnemyModel.CONTROL_NO_ACTION : MOVE_CTRL[move];
+        }
+        if (plannerType == PlannerType.HPA) {
+            int move = hierarchicalPlanner != null
+                    ? hierarchicalPlanner.findFirstMove(startX, startY, goalX, goalY)
+                    : aStarPlanner.findFirstMove(startX, startY, goalX, goalY);
+            return move < 0 ? EnemyModel.CONTROL_NO_ACTION : MOVE_CTRL[move];
+        }
+        if (plannerType == PlannerType.GDX_AI) {
+            return getMoveAlongSlicedPath(startX, startY);
+        }
+
+        // Initialize frontier with movement options. Tiles are marked visited as they are queued, which keeps
+        // each tile in the frontier at most once and gives it the first move of its earliest-queued parent
+        // (the same move it would carry when first dequeued if duplicates were allowed).
+        for (int i = 0; i < MOVE_CTRL.length; i++) {
+            int x = startX + MOVE_DX[i], y = startY + MOVE_DY[i];
+            if (isSafe(x, y) && !scratch.isVisited(level.tileIndex(x, y))) {
+                scratch.setVisited(level.tileIndex(x, y));
+                scratch.pushFrontier(level.tileIndex(x, y), i);
+            }
+        }
+
+        int width = level.getTileGridWidth();
+        while(!scratch.isFrontierEmpty()){
+            int entry = scratch.pollFrontier();
+            int curr = LevelModel.SearchScratch.entryTile(entry);
+            int move = LevelModel.SearchScratch.entryMove(entry);
             // Find goal
-            if(level.isGoal(curr.x, curr.y))
-                return curr.ctrlCode;
-
-            // Push all valid movements to queue (with current action because that is the first move from start location
-            // that has shortest path to this point)
-            if(level.isSafe(curr.x+1, curr.y))
-                queue.add(new TileIndex(curr.x+1, curr.y, curr.ctrlCode));
-            if(level.isSafe(curr.x, curr.y+1))
-                queue.add(new TileIndex(curr.x, curr.y+1, curr.ctrlCode));
-            if(level.isSafe(curr.x-1, curr.y))
-                queue.add(new TileIndex(curr.x-1, curr.y, curr.ctrlCode));
-            if(level.isSafe(curr.x, curr.y-1))
-                queue.add(new TileIndex(curr.x, curr.y-1, curr.ctrlCode));
-
-            if(level.isSafe(curr.x-1, curr.y-1))
-                queue.add(new TileIndex(curr.x-1, curr.y-1, curr.ctrlCode));
-            if(level.isSafe(curr.x+1, curr.y-1))
-                queue.add(new TileIndex(curr.x+1, curr.y-1, curr.ctrlCode));
-            if(level.isSafe(curr.x-1, curr.y+1))
-                queue.add(new TileIndex(curr.x-1, curr.y+1, curr.ctrlCode));
-            if(level.isSafe(curr.x+1, curr.y+1))
-                queue.add(new TileIndex(curr.x+1, curr.y+1, curr.ctrlCode));
+            if(scratch.isGoal(curr))
+                return MOVE_CTRL[move];
+
+            // Push all valid movements to frontier (with current action because that is the first move from start
+            // location that has shortest path to this point)
+            int currX = curr % width, currY = curr / width;
+            for (int i = 0; i < MOVE_CTRL.length; i++) {
+                int x = currX + MOVE_DX[i], y = currY + MOVE_DY[i];
+                if (isSafe(x, y) && !scratch.isVisited(level.tileIndex(x, y))) {
+                    scratch.setVisited(level.tileIndex(x, y));
+                    scratch.pushFrontier(level.tileIndex(x, y), move);
+                }
+            }
         }
         //System.out.println("Goal not acquired");
         return EnemyModel.CONTROL_NO_ACTION;
     }
 
-    /** Tile Index Object for queue in path finder
-     * 	Holds an action attribute that indicates best starting action to get to the current x,y tile index
+    /**
+     * Get enemy movement along the path found by the level's time-sliced planner
+     *
+     * Follows the last finished path while it still leads to the current goal and the enemy is on (or next to) it.
+     * Otherwise a new search is queued and the previous move is kept until it finishes. Goals the graph cannot
+     * enter (the goal-tile exception of isSafe()) and levels without a planner fall back to a direct A* query.
+     *
+     * @param startX Enemy tile x-coor
+     * @param startY Enemy tile y-coor
+     * @return a movement direction that moves towards the goal tile, the previous move, or NO_ACTION.
      */
-    protected class TileIndex {
-        int x; int y; int ctrlCode;
-        public TileIndex(int x, int y) {
-            this.x = x; this.y = y;
+    private int getMoveAlongSlicedPath(int startX, int startY) {
+        if (slicedPlanner == null || !level.isWalkable(goalX, goalY)) {
+            int first = aStarPlanner.findFirstMove(startX, startY, goalX, goalY);
+            return first < 0 ? EnemyModel.CONTROL_NO_ACTION : MOVE_CTRL[first];
         }
-        public TileIndex(int x, int y, int ctrlCode) {
-            this.x = x; this.y = y; this.ctrlCode = ctrlCode;
+        if (slicedRequest.isPending())
+            return move;
+
+        if (slicedGoalX == goalX && slicedGoalY == goalY) {
+            if (!slicedRequest.pathFound)
+                return EnemyModel.CONTROL_NO_ACTION;
+            int next = nextMoveOnPath(startX, startY);
+            if (next >= 0)
+                return MOVE_CTRL[next];
         }
+        if (startX == goalX && startY == goalY)
+            return EnemyModel.CONTROL_NO_ACTION;
+
+        slicedGoalX = goalX;
+        slicedGoalY = goalY;
+        slicedPlanner.submit(slicedRequest, startX, startY, goalX, goalY);
+        return move;
+    }
+
+    /**
+     * Finds the move toward the furthest tile of the last sliced path that is the enemy's tile or one of its
+     * neighbors, skipping ahead along the path.
+     *
+     * @return index into MOVE_* of the move, or -1 if the enemy has left the path or reached its end
+     */
+    private int nextMoveOnPath(int startX, int startY) {
+        DefaultGraphPath<LevelGraph.Node> path = slicedRequest.getPath();
+        for (int i = path.getCount() - 1; i > 0; i--) {
+            LevelGraph.Node node = path.get(i);
+            int dx = node.x - startX, dy = node.y - startY;
+            if (Math.abs(dx) > 1 || Math.abs(dy) > 1) continue;
+            if (dx == 0 && dy == 0) return -1;
+            for (int m = 0; m < MOVE_CTRL.length; m++) {
+                if (MOVE_DX[m] == dx && MOVE_DY[m] == dy) return m;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get enemy movement toward the root of the level's shared flow field
+     *
+     * Takes the first direction (in path finder order) whose tile is closest to the root. This is the same move
+     * getMoveAlongPathToGoalTile() returns when the root is the only goal tile, without a search per enemy. The
+     * field must have been settled around the enemy (LevelModel.settleFlowField()) during updateState().
+     *
+     * @return a movement direction that moves towards the flow field root or NO_ACTION.
+     */
+    protected int getMoveAlongFlowField() {
+        int startX = level.screenToTile(enemy.getX());
+        int startY = level.screenToTile(enemy.getY());
+
+        int best = -1;
+        int bestDist = Integer.MAX_VALUE;
+        for (int i = 0; i < MOVE_CTRL.length; i++) {
+            int dist = level.getFlowDistance(startX + MOVE_DX[i], startY + MOVE_DY[i]);
+            if (dist >= 0 && dist < bestDist) {
+                best = i;
+                bestDist = dist;
+            }
+        }
+        return best < 0 ? EnemyModel.CONTROL_NO_ACTION : MOVE_CTRL[best];
+    }
+
+    /**
+     * Get enemy movement toward the root of one of the level's shared distance fields
+     *
+     * Like getMoveAlongFlowField(), but reads a whole-grid field from LevelModel.requestDistanceField(), which must
+     * have been requested during updateState().
+     *
+     * @param field The field id
+     * @return a movement direction that moves towards the field root or NO_ACTION.
+     */
+    protected int getMoveAlongDistanceField(int field) {
+        int startX = level.screenToTile(enemy.getX());
+        int startY = level.screenToTile(enemy.getY());
+
+        int best = -1;
+        int bestDist = Integer.MAX_VALUE;
+        for (int i = 0; i < MOVE_CTRL.length; i++) {
+            int dist = level.getFieldDistance(field, startX + MOVE_DX[i], startY + MOVE_DY[i]);
+            if (dist >= 0 && dist < bestDist) {
+                best = i;
+                bestDist = dist;
+            }
+        }
+        return best < 0 ? EnemyModel.CONTROL_NO_ACTION : MOVE_CTRL[best];
     }
 
     /** Returns whether an enemy is in the player's light radius */
     protected boolean withinPlayerLight(){
+        if (illumination != null && !illumination.mayReachPlayerLight(enemy.getTextureX(), enemy.getTextureY()))
+            return false;
         double distance = cartesianDistance(enemy.getTextureX(),player.getTextureX(),enemy.getTextureY(),player.getTextureY());
         return distance <= player.getLightRadius();
     }
@@ -175,6 +491,33 @@ public abstract class AIController {
         return distance <= f.getLightRadius();
     }
 
+    /**
+     * Finds the first flare (in the order they were fired) that the enemy is within range of.
+     *
+     * Only flares whose light covers the enemy in the level's flare index are tested; without an index every flare
+     * is. If the illumination grid shows no flare light on the enemy's tile, none are.
+     *
+     * @param flares The flares in the world
+     * @param unstuckOnly Whether to skip flares stuck to a wall
+     * @return the flare, or null if there is none
+     */
+    protected FlareModel findFlareInRange(List<FlareModel> flares, boolean unstuckOnly) {
+        if (illumination != null && !illumination.mayReachFlareLight(enemy.getX(), enemy.getY())) return null;
+        if (flareIndex != null) {
+            flareIndex.queryRadius(enemy.getX(), enemy.getY(), 0, nearbyFlares);
+            for (int i = 0; i < nearbyFlares.size; i++) {
+                FlareModel f = nearbyFlares.get(i);
+                if (withinFlareRange(f) && !(unstuckOnly && f.isStuck())) return f;
+            }
+            return null;
+        }
+        for (int i = 0; i < flares.size(); i++) {
+            FlareModel f = flares.get(i);
+            if (withinFlareRange(f) && !(unstuckOnly && f.isStuck())) return f;
+        }
+        return null;
+    }
+
     /**
      * @param x1 the x coordinate of the first point
      * @param x2 the x coordinate of the second point
@@ -26,7 +26,7 @@ public class AIGhostController extends AIController {
     public AIGhostController(int id, LevelModel level, List<EnemyModel> enemies, PlayerModel player) {
         super(id, level, enemies, player);
         this.player = player;
-        assert(enemy.getClass() == EnemyGhostModel.class);
+        assert(super.enemy.getClass() == EnemyGhostModel.class);
         this.enemy = (EnemyGhostModel)super.enemy;
     }
 
@@ -79,6 +79,13 @@ public class AIGhostController extends AIController {
         }
     }
 
+    /**
+     * Ghost is always chasing
+     * @return the re-plan priority
+     */
+    @Override
+    public int getPlanPriority() { return PRIORITY_CHASE; }
+
     /**
      * Mark all desirable tiles to move to.
      *
@@ -0,0 +1,54 @@
+package com.fallenflame.game.enemies;
+
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join task that runs updateMove() for every controller that is re-planning this tick.
+ *
+ * The range of controllers is split in half until it is small enough to run directly. Each controller only writes
+ * its own move, so the result is the same as running them one after another in enemy order.
+ */
+public class AIPlanTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /** Largest range of controllers planned by a single task without splitting */
+    private static final int SPLIT_THRESHOLD = 2;
+
+    /** All controllers, in enemy order */
+    private final List<AIController> controllers;
+    /** Whether each controller is re-planning this tick */
+    private final boolean[] replanning;
+    /** Range of controllers [lo, hi) handled by this task */
+    private final int lo;
+    private final int hi;
+
+    /**
+     * Creates a task that plans controllers [lo, hi).
+     *
+     * @param controllers All controllers, in enemy order (must support fast random access)
+     * @param replanning Whether each controller was scheduled to re-plan this tick
+     * @param lo First controller index (inclusive)
+     * @param hi Last controller index (exclusive)
+     */
+    public AIPlanTask(List<AIController> controllers, boolean[] replanning, int lo, int hi) {
+        this.controllers = controllers;
+        this.replanning = replanning;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+        if (hi - lo <= SPLIT_THRESHOLD) {
+            for (int c = lo; c < hi; c++) {
+                if (replanning[c])
+                    controllers.get(c).updateMove();
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new AIPlanTask(controllers, replanning, lo, mid),
+                new AIPlanTask(controllers, replanning, mid, hi));
+    }
+}
@@ -0,0 +1,133 @@
+package com.fallenflame.game.enemies;
+
+import java.util.List;
+
+/**
+ * Chooses which AI controllers re-plan each tick, within a time budget.
+ *
+ * Every controller becomes due once REPLAN_INTERVAL ticks have passed since its last re-plan. Due controllers are
+ * ordered by priority (chasing before investigating before idle, see AIController.getPlanPriority()) and then by
+ * distance to the player, and are picked until the sum of their estimated re-plan costs would exceed the budget.
+ * The rest are deferred: they stay due and are considered again next tick. A controller that has been deferred for
+ * a whole extra interval is counted as a skipped re-plan and moves ahead of everything else, so no enemy starves.
+ *
+ * The budget is checked against the summed cost estimates, which is conservative when planning runs in parallel.
+ */
+public class AIScheduler {
+    /** Time budget (in nanoseconds) for re-plans per tick */
+    private long budget;
+
+    /** Due controllers this tick, sorted into planning order */
+    private int[] order = new int[0];
+    private int numDue;
+
+    // Statistics
+    /** Controllers re-planned on the last tick */
+    private int replanned;
+    /** Due controllers deferred to the next tick on the last tick */
+    private int deferred;
+    /** Re-plans skipped (a whole extra interval without a re-plan) on the last tick */
+    private int skipped;
+    /** Estimated time (in nanoseconds) of the re-plans scheduled on the last tick */
+    private long scheduledCost;
+    /** Totals since the level started */
+    private long totalDeferred;
+    private long totalSkipped;
+
+    /**
+     * Creates a scheduler with the given per-tick budget.
+     *
+     * @param budgetMicros Time budget (in microseconds) for re-plans per tick
+     */
+    public AIScheduler(long budgetMicros) {
+        setBudget(budgetMicros);
+    }
+
+    /** @return the time budget (in microseconds) for re-plans per tick */
+    public long getBudget() { return budget / 1000; }
+
+    /** @param budgetMicros Time budget (in microseconds) for re-plans per tick */
+    public void setBudget(long budgetMicros) { budget = budgetMicros * 1000; }
+
+    /**
+     * Advances every controller by a tick and chooses which of them re-plan.
+     *
+     * At least one due controller is always chosen, so a budget smaller than a single re-plan still makes progress.
+     *
+     * @param controllers All controllers, in enemy order (must support fast random access)
+     * @param replanning Set to whether each controller re-plans this tick (at least controllers.size() long)
+     * @return the number of controllers chosen
+     */
+    public int schedule(List<AIController> controllers, boolean[] replanning) {
+        int n = controllers.size();
+        if (order.length < n)
+            order = new int[n];
+        numDue = 0;
+        for (int c = 0; c < n; c++) {
+            AIController controller = controllers.get(c);
+            controller.tick();
+            replanning[c] = false;
+            if (controller.isDueForReplan())
+                insert(controllers, c);
+        }
+
+        replanned = deferred = skipped = 0;
+        scheduledCost = 0;
+        for (int i = 0; i < numDue; i++) {
+            AIController controller = controllers.get(order[i]);
+            long cost = controller.getPlanCost();
+            if (replanned == 0 || scheduledCost + cost <= budget) {
+                replanning[order[i]] = true;
+                scheduledCost += cost;
+                replanned++;
+            } else {
+                deferred++;
+                int waited = controller.getTicksSinceReplan();
+                if (waited > AIController.REPLAN_INTERVAL && waited % AIController.REPLAN_INTERVAL == 0)
+                    skipped++;
+            }
+        }
+        totalDeferred += deferred;
+        totalSkipped += skipped;
+        return replanned;
+    }
+
+    /**
+     * Inserts a due controller into the planning order (insertion sort; there are only a few enemies per level).
+     */
+    private void insert(List<AIController> controllers, int c) {
+        int i = numDue++;
+        while (i > 0 && before(controllers.get(c), controllers.get(order[i - 1]))) {
+            order[i] = order[i - 1];
+            i--;
+        }
+        order[i] = c;
+    }
+
+    /** Whether controller a should re-plan before controller b */
+    private static boolean before(AIController a, AIController b) {
+        boolean starvingA = a.getTicksSinceReplan() >= 2 * AIController.REPLAN_INTERVAL;
+        boolean starvingB = b.getTicksSinceReplan() >= 2 * AIController.REPLAN_INTERVAL;
+        if (starvingA != starvingB) return starvingA;
+        if (a.getPlanPriority() != b.getPlanPriority()) return a.getPlanPriority() > b.getPlanPriority();
+        return a.getDistanceToPlayer2() < b.getDistanceToPlayer2();
+    }
+
+    /** @return the number of controllers re-planned on the last tick */
+    public int getReplanned() { return replanned; }
+
+    /** @return the number of due controllers deferred to the next tick on the last tick */
+    public int getDeferred() { return deferred; }
+
+    /** @return the number of re-plans skipped on the last tick */
+    public int getSkipped() { return skipped; }
+
+    /** @return the estimated time (in microseconds) of the re-plans scheduled on the last tick */
+    public long getScheduledCost() { return scheduledCost / 1000; }
+
+    /** @return the number of deferrals since the level started */
+    public long getTotalDeferred() { return totalDeferred; }
+
+    /** @return the number of skipped re-plans since the level started */
+    public long getTotalSkipped() { return totalSkipped; }
+}
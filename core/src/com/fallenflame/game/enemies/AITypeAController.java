@@ -1,6 +1,7 @@
 package com.fallenflame.game.enemies;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.utils.JsonValue;
 import com.fallenflame.game.FlareModel;
@@ -47,6 +48,12 @@ public class AITypeAController extends AIController {
     private Vector2[] pathCoors;
     /** Current point in path */
     private int pathPoint;
+    /** Level-wide route tables (null until the level hands them out) */
+    private PatrolRoutes patrolRoutes;
+    /** Route table of each path point (only for enemies of subtype Pathing) */
+    private int[] pathRoutes;
+    /** Shared distance field to the flare being investigated this tick, or -1 */
+    private int flareField = -1;
 
     /**
      * Creates an AIController for the enemy with the given id.
@@ -60,7 +67,7 @@ public class AITypeAController extends AIController {
     public AITypeAController(int id, LevelModel level, List<EnemyModel> enemies, PlayerModel player,
                         List<FlareModel> flares) {
         super(id, level, enemies, player);
-        assert(enemy.getClass() == EnemyTypeAModel.class);
+        assert(super.enemy.getClass() == EnemyTypeAModel.class);
         this.enemy = (EnemyTypeAModel)super.enemy;
         this.flares = flares;
         pathCoors = null;
@@ -80,7 +87,7 @@ public class AITypeAController extends AIController {
                              List<FlareModel> flares, JsonValue pathCoorsJSON) {
         super(id, level, enemies, player);
         this.player = player;
-        assert(enemy.getClass() == EnemyTypeAModel.class);
+        assert(super.enemy.getClass() == EnemyTypeAModel.class);
         this.enemy = (EnemyTypeAModel)super.enemy;
         this.flares = flares;
         state = FSMState.IDLE;
@@ -111,7 +118,7 @@ public class AITypeAController extends AIController {
                     // reset pause time and enter pause state
                     enemy.resetPause();
                     state = FSMState.PAUSE;
-                    enemy.setInvestigatePosition(new Vector2(player.getX(), player.getY()));
+                    enemy.setInvestigatePosition(player.getX(), player.getY());
                     break;
                 }
                 // If enemy is of subtype pathing
@@ -127,7 +134,7 @@ public class AITypeAController extends AIController {
             case PAUSE:
                 enemy.makePause();
                 if(withinPlayerLight())
-                    enemy.setInvestigatePosition(new Vector2(player.getX(), player.getY())); // set in case we later loose player
+                    enemy.setInvestigatePosition(player.getX(), player.getY()); // set in case we later loose player
                 if(!checkFlares() && enemy.isFinishedPausing())
                     state = FSMState.CHASE;
                 break;
@@ -142,13 +149,13 @@ public class AITypeAController extends AIController {
                     state = FSMState.INVESTIGATE;
                 }
                 else
-                    enemy.setInvestigatePosition(new Vector2(player.getX(), player.getY()));
+                    enemy.setInvestigatePosition(player.getX(), player.getY());
                 break;
 
             case INVESTIGATE:
                 enemy.setWalking(); // walk normally when investigating
                 enemy.makeAlert();
-                assert enemy.getInvestigatePosition() != null;
+                assert enemy.hasInvestigatePosition();
                 // Check if investigating flare
                 if(enemy.isInvestigatingFlare()){
                     // Update investigation position for moving flare
@@ -185,14 +192,13 @@ public class AITypeAController extends AIController {
      */
     private boolean checkFlares(){
         // Check for flares in range
-        for(FlareModel f : flares){
-            // If flare found, chase flare
-            if(withinFlareRange(f)){
-                state = FSMState.INVESTIGATE;
-                enemy.setInvestigatePosition(new Vector2(f.getX(), f.getY()));
-                enemy.setInvestigateFlare(f);
-                return true;
-            }
+        FlareModel f = findFlareInRange(flares, false);
+        // If flare found, chase flare
+        if(f != null){
+            state = FSMState.INVESTIGATE;
+            enemy.setInvestigatePosition(f.getX(), f.getY());
+            enemy.setInvestigateFlare(f);
+            return true;
         }
         return false;
     }
@@ -203,28 +209,36 @@ public class AITypeAController extends AIController {
      * This method implements pathfinding through the use of goal tiles.
      */
     protected void markGoalTiles() {
+        flareField = -1;
         switch(state) {
             case IDLE:
                 // If enemy is of subtype pathing
                 if(pathCoors != null){
-                    level.setGoal(level.screenToTile(enemy.getInvestigatePositionX()),
-                            level.screenToTile(enemy.getInvestigatePositionY()));
+                    setGoalTile(level.screenToTile(enemy.getInvestigatePositionX()),
+                                level.screenToTile(enemy.getInvestigatePositionY()));
                 }
                 break; // no goal tile
 
             case PAUSE:
                 // Turn enemy towards player
-                Vector2 posDif = new Vector2(player.getX() - enemy.getX(), player.getY() - enemy.getY());
-                float angle = posDif.angle();
-                enemy.setAngle(angle);
+                float angle = (float) Math.atan2(player.getY() - enemy.getY(), player.getX() - enemy.getX())
+                        * MathUtils.radiansToDegrees;
+                enemy.setAngle(angle < 0 ? angle + 360 : angle); // same range as Vector2.angle()
                 break; // no goal tile
 
             case CHASE:
-                level.setGoal(level.screenToTile(player.getX()), level.screenToTile(player.getY()));
+                // Goal is the player tile, which roots the level's shared flow field; grow it to reach this enemy
+                level.settleFlowField(level.screenToTile(enemy.getX()), level.screenToTile(enemy.getY()));
                 break;
 
             case INVESTIGATE:
-                level.setGoal(level.screenToTile(enemy.getInvestigatePositionX()),
+                // Every enemy drawn to a flare heads for the same tile, so they share one distance field
+                if(enemy.isInvestigatingFlare()) {
+                    flareField = level.requestDistanceField(level.screenToTile(enemy.getInvestigatePositionX()),
+                            level.screenToTile(enemy.getInvestigatePositionY()));
+                    break;
+                }
+                setGoalTile(level.screenToTile(enemy.getInvestigatePositionX()),
                         level.screenToTile(enemy.getInvestigatePositionY()));
                 break;
 
@@ -234,6 +248,64 @@ public class AITypeAController extends AIController {
         }
     }
 
+    /**
+     * Registers the path points of an enemy of subtype pathing with the level's route tables.
+     *
+     * @param routes the level's patrol route tables
+     */
+    @Override
+    public void setPatrolRoutes(PatrolRoutes routes) {
+        if (pathCoors == null) return;
+        patrolRoutes = routes;
+        pathRoutes = new int[pathCoors.length];
+        for (int i = 0; i < pathCoors.length; i++) {
+            pathRoutes[i] = routes.addWaypoint(level.screenToTile(pathCoors[i].x), level.screenToTile(pathCoors[i].y));
+        }
+    }
+
+    /**
+     * Get enemy movement toward goal
+     *
+     * Chasing enemies all head for the player tile, so they read the shared flow field instead of searching, and
+     * enemies investigating a flare read the flare's shared distance field. Patrolling enemies look their move up in
+     * the route table of their next path point, and only search (to detour) if walls or trees changed so that the
+     * tile it leads to is blocked.
+     *
+     * @return a movement direction that moves towards a goal tile or NO_ACTION.
+     */
+    @Override
+    protected int getMoveAlongPathToGoalTile() {
+        if (state == FSMState.CHASE)
+            return getMoveAlongFlowField();
+        if (flareField >= 0)
+            return getMoveAlongDistanceField(flareField);
+        if (state == FSMState.IDLE && pathRoutes != null) {
+            int x = level.screenToTile(enemy.getX()), y = level.screenToTile(enemy.getY());
+            int move = patrolRoutes.getMove(pathRoutes[pathPoint], x, y);
+            if (move >= 0 && (!patrolRoutes.isStale() || level.isWalkable(x + MOVE_DX[move], y + MOVE_DY[move])))
+                return MOVE_CTRL[move];
+        }
+        return super.getMoveAlongPathToGoalTile();
+    }
+
+    /**
+     * Enemies that have seen the player re-plan first, then those investigating, then idle ones.
+     *
+     * @return the re-plan priority
+     */
+    @Override
+    public int getPlanPriority() {
+        switch(state) {
+            case CHASE:
+            case PAUSE:
+                return PRIORITY_CHASE;
+            case INVESTIGATE:
+                return PRIORITY_INVESTIGATE;
+            default:
+                return PRIORITY_IDLE;
+        }
+    }
+
     /** Determines whether the player has reached the coordinates they are investigating */
     private boolean investigateReached(){
         double distance = cartesianDistance(level.screenToTile(enemy.getX()),
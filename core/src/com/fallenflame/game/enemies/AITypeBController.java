@@ -56,7 +56,7 @@ public class AITypeBController extends AIController {
         super(id, level, enemies, player);
         this.player = player;
         this.flares = flares;
-        assert(enemy.getClass() == EnemyTypeBModel.class);
+        assert(super.enemy.getClass() == EnemyTypeBModel.class);
         this.enemy = (EnemyTypeBModel)super.enemy;
         state = FSMState.IDLE;
     }
@@ -77,15 +77,14 @@ public class AITypeBController extends AIController {
                     return;
                 }
                 // Check for flare targets -- SECOND because player is prioritized
-                for(FlareModel f : flares) {
-                    if(withinFlareRange(f) && !f.isStuck()){
-                        firingAtFlare = true;
-                        firedWall = false;
-                        targetFlare = f;
-                        enemy.setFiringTarget(f.getX(), f.getY());
-                        state = FSMState.DIRECT_FIRE; // does not pause for flares
-                        return;
-                    }
+                FlareModel f = findFlareInRange(flares, true);
+                if(f != null){
+                    firingAtFlare = true;
+                    firedWall = false;
+                    targetFlare = f;
+                    enemy.setFiringTarget(f.getX(), f.getY());
+                    state = FSMState.DIRECT_FIRE; // does not pause for flares
+                    return;
                 }
                 break;
 
@@ -136,14 +135,13 @@ public class AITypeBController extends AIController {
                     return;
                 }
                 // Check for flare targets -- SECOND because player is prioritized
-                for(FlareModel f : flares) {
-                    if(withinFlareRange(f) && !f.isStuck()){
-                        firingAtFlare = true;
-                        targetFlare = f;
-                        enemy.setFiringTarget(f.getX(), f.getY());
-                        state = FSMState.DIRECT_FIRE;
-                        return;
-                    }
+                FlareModel flare = findFlareInRange(flares, true);
+                if(flare != null){
+                    firingAtFlare = true;
+                    targetFlare = flare;
+                    enemy.setFiringTarget(flare.getX(), flare.getY());
+                    state = FSMState.DIRECT_FIRE;
+                    return;
                 }
                 // Check if sustained fire has ended
                 if(firingTime >= SUSTAINED_FIRE_TIME)
@@ -168,6 +166,16 @@ public class AITypeBController extends AIController {
      */
     protected int getMoveAlongPathToGoalTile() { return EnemyModel.CONTROL_NO_ACTION; }
 
+    /**
+     * Enemies that have seen the player (pausing or firing) re-plan first.
+     *
+     * @return the re-plan priority
+     */
+    @Override
+    public int getPlanPriority() {
+        return state == FSMState.IDLE ? PRIORITY_IDLE : PRIORITY_CHASE;
+    }
+
     /**
      * Return firing action code if enemy is firing
      */
@@ -0,0 +1,199 @@
+package com.fallenflame.game.enemies;
+
+import com.fallenflame.game.LevelModel;
+
+import java.util.Arrays;
+
+/**
+ * A* path planner over the tiles of a LevelModel.
+ *
+ * Uses the same eight movement directions as the BFS in AIController, with straight moves costing 10 and diagonal
+ * moves costing 14 so the octile distance is an admissible and consistent heuristic. The open set is a binary heap
+ * of packed tile indices stored in an int array, and all per-tile bookkeeping lives in flat arrays that are reused
+ * between queries, so planning does not allocate once the arrays have been sized to the level.
+ */
+public class AStarPlanner {
+    /** Cost of a horizontal or vertical move */
+    private static final int STRAIGHT_COST = 10;
+    /** Cost of a diagonal move (10 * sqrt(2), rounded) */
+    private static final int DIAGONAL_COST = 14;
+
+    /** The level to plan on */
+    private final LevelModel level;
+    /** Grid dimensions the arrays are currently sized for */
+    private int width;
+    private int height;
+
+    /** Cost of the best known path from the start to each tile */
+    private int[] g;
+    /** Estimated total cost (g + heuristic) of each tile */
+    private int[] f;
+    /** First move (index into AIController.MOVE_*) taken on the best known path to each tile */
+    private int[] firstMove;
+    /** Search generation in which each tile was last discovered */
+    private int[] seen;
+    /** Search generation in which each tile was last closed */
+    private int[] closed;
+    /** Position of each tile in the heap, only valid while the tile is open */
+    private int[] heapPos;
+    /** Binary min-heap of open tile indices */
+    private int[] heap;
+    private int heapSize;
+    /** Current search generation. Bumping this resets seen and closed in O(1) */
+    private int generation;
+
+    /** Number of tiles expanded by the last query */
+    private int expanded;
+
+    /**
+     * Creates a planner for the given level.
+     *
+     * The level does not need to be initialized yet; arrays are sized on the first query.
+     *
+     * @param level The level to plan on
+     */
+    public AStarPlanner(LevelModel level) {
+        this.level = level;
+    }
+
+    /** @return the number of tiles expanded by the last query */
+    public int getExpanded() { return expanded; }
+
+    /**
+     * Finds the first move of a shortest path from the start tile to the goal tile.
+     *
+     * Every tile on the path after the start must be walkable, except the goal which is always enterable (matching
+     * the goal tile rule of AIController.isSafe()). Only reads the level, so planners of different controllers can
+     * run at the same time.
+     *
+     * @param startX Start tile x-coor
+     * @param startY Start tile y-coor
+     * @param goalX Goal tile x-coor
+     * @param goalY Goal tile y-coor
+     * @return index into AIController.MOVE_* of the first move, or -1 if there is no path or start is the goal
+     */
+    public int findFirstMove(int startX, int startY, int goalX, int goalY) {
+        expanded = 0;
+        if ((startX == goalX && startY == goalY) || !level.inBounds(goalX, goalY)) return -1;
+        ensureCapacity();
+        nextGeneration();
+
+        int goal = goalX + goalY * width;
+        for (int i = 0; i < AIController.MOVE_CTRL.length; i++) {
+            relax(startX + AIController.MOVE_DX[i], startY + AIController.MOVE_DY[i], goalX, goalY,
+                    i < 4 ? STRAIGHT_COST : DIAGONAL_COST, i);
+        }
+
+        while (heapSize > 0) {
+            int curr = pop();
+            if (curr == goal) return firstMove[curr];
+            closed[curr] = generation;
+            expanded++;
+
+            int x = curr % width, y = curr / width;
+            for (int i = 0; i < AIController.MOVE_CTRL.length; i++) {
+                relax(x + AIController.MOVE_DX[i], y + AIController.MOVE_DY[i], goalX, goalY,
+                        g[curr] + (i < 4 ? STRAIGHT_COST : DIAGONAL_COST), firstMove[curr]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Offers a path of the given cost to a tile, opening or improving it if it is better than what we know.
+     */
+    private void relax(int x, int y, int goalX, int goalY, int cost, int move) {
+        if (!level.isWalkable(x, y) && !(x == goalX && y == goalY)) return;
+        int idx = x + y * width;
+        if (closed[idx] == generation) return;
+        if (seen[idx] == generation && g[idx] <= cost) return;
+
+        g[idx] = cost;
+        f[idx] = cost + heuristic(x, y, goalX, goalY);
+        firstMove[idx] = move;
+        if (seen[idx] != generation) {
+            seen[idx] = generation;
+            heap[heapSize] = idx;
+            heapPos[idx] = heapSize;
+            heapSize++;
+        }
+        siftUp(heapPos[idx]);
+    }
+
+    /** Octile distance between two tiles */
+    private static int heuristic(int x, int y, int goalX, int goalY) {
+        int dx = Math.abs(x - goalX), dy = Math.abs(y - goalY);
+        return STRAIGHT_COST * Math.max(dx, dy) + (DIAGONAL_COST - STRAIGHT_COST) * Math.min(dx, dy);
+    }
+
+    /** Whether tile a should come out of the heap before tile b (lower f, then higher g) */
+    private boolean before(int a, int b) {
+        return f[a] < f[b] || (f[a] == f[b] && g[a] > g[b]);
+    }
+
+    private int pop() {
+        int top = heap[0];
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapPos[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int idx = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (!before(idx, heap[parent])) break;
+            heap[i] = heap[parent];
+            heapPos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = idx;
+        heapPos[idx] = i;
+    }
+
+    private void siftDown(int i) {
+        int idx = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child])) child++;
+            if (!before(heap[child], idx)) break;
+            heap[i] = heap[child];
+            heapPos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = idx;
+        heapPos[idx] = i;
+    }
+
+    /** Starts a new search, invalidating all per-tile marks from previous searches */
+    private void nextGeneration() {
+        heapSize = 0;
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            generation = 1;
+        }
+    }
+
+    /** (Re)allocates the per-tile arrays if the level grid changed size */
+    private void ensureCapacity() {
+        if (g != null && level.getTileGridWidth() == width && level.getTileGridHeight() == height) return;
+        width = level.getTileGridWidth();
+        height = level.getTileGridHeight();
+        int n = width * height;
+        g = new int[n];
+        f = new int[n];
+        firstMove = new int[n];
+        seen = new int[n];
+        closed = new int[n];
+        heapPos = new int[n];
+        heap = new int[n];
+        generation = 0;
+    }
+}
@@ -0,0 +1,283 @@
+package com.fallenflame.game.enemies;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.fallenflame.game.LevelModel;
+
+import java.util.Arrays;
+
+/**
+ * Abstract graph for hierarchical path finding (HPA*) over the tiles of a LevelModel.
+ *
+ * The grid is cut into square clusters. Wherever walkable tiles touch across a cluster border, an entrance is made
+ * of a node on each side (one transition per short opening, one at each end of a long opening), joined by an
+ * inter-cluster edge. Every pair of nodes in the same cluster that can reach each other without leaving it is
+ * joined by an intra-cluster edge holding their precomputed distance. Costs match AStarPlanner (10 straight,
+ * 14 diagonal).
+ *
+ * The graph is built once per level and only rebuilt when the level's walls or trees change (see refresh()). It is
+ * read-only between rebuilds, so every controller's HierarchicalPlanner can search it at the same time.
+ */
+public class ClusterGraph {
+    /** Default cluster side length, in tiles */
+    public static final int DEFAULT_CLUSTER_SIZE = 10;
+    /** Openings at least this long get a transition at each end instead of one in the middle */
+    private static final int MIN_DOUBLE_ENTRANCE = 6;
+    private static final int STRAIGHT_COST = 10;
+    private static final int DIAGONAL_COST = 14;
+
+    /** The level this graph abstracts */
+    private final LevelModel level;
+    /** Cluster side length, in tiles */
+    private final int clusterSize;
+    /** Tile grid and cluster grid dimensions the graph was built for */
+    private int width, height;
+    private int clustersX, clustersY;
+    /** LevelModel static version the graph was built for */
+    private int builtVersion;
+
+    /** Tile index of each node */
+    private int[] nodeTile;
+    /** Node at each tile index, or -1 */
+    private int[] tileNode;
+    /** Nodes of cluster c are clusterNodes[clusterStart[c]] to clusterNodes[clusterStart[c + 1] - 1] */
+    private int[] clusterStart;
+    private int[] clusterNodes;
+    /** Edges of node n are edgeTo/edgeCost[edgeStart[n]] to [edgeStart[n + 1] - 1] */
+    private int[] edgeStart;
+    private int[] edgeTo;
+    private int[] edgeCost;
+
+    /** Scratch used while building */
+    private final ClusterSearch search;
+    private final IntArray nodes = new IntArray();
+    private final IntArray edgeFrom = new IntArray();
+    private final IntArray edgeDest = new IntArray();
+    private final IntArray edgeWeight = new IntArray();
+
+    /**
+     * Creates and builds the abstract graph of the given level.
+     *
+     * @param level The level to abstract. Must already be initialized.
+     * @param clusterSize Cluster side length, in tiles
+     */
+    public ClusterGraph(LevelModel level, int clusterSize) {
+        this.level = level;
+        this.clusterSize = clusterSize;
+        search = new ClusterSearch(level, clusterSize);
+        build();
+    }
+
+    /**
+     * Rebuilds the graph if the level's static obstacles or grid size changed since the last build.
+     *
+     * Must not be called while planners are searching the graph.
+     *
+     * @return whether the graph was rebuilt
+     */
+    public boolean refresh() {
+        if (level.getStaticVersion() == builtVersion && level.getTileGridWidth() == width
+                && level.getTileGridHeight() == height) return false;
+        build();
+        return true;
+    }
+
+    /** @return the level this graph abstracts */
+    public LevelModel getLevel() { return level; }
+
+    /** @return the cluster side length, in tiles */
+    public int getClusterSize() { return clusterSize; }
+
+    /** @return the number of clusters in a row of the grid */
+    public int getClustersX() { return clustersX; }
+
+    /** @return the index of the cluster holding a tile */
+    public int clusterOf(int x, int y) { return x / clusterSize + (y / clusterSize) * clustersX; }
+
+    /** @return the number of abstract nodes */
+    public int getNodeCount() { return nodeTile.length; }
+
+    /** @return the number of directed abstract edges */
+    public int getEdgeCount() { return edgeTo.length; }
+
+    /** @return the tile index of a node */
+    public int getNodeTile(int node) { return nodeTile[node]; }
+
+    /** @return the first position in getClusterNode() of the nodes of a cluster */
+    public int getClusterStart(int cluster) { return clusterStart[cluster]; }
+
+    /** @return one past the last position in getClusterNode() of the nodes of a cluster */
+    public int getClusterEnd(int cluster) { return clusterStart[cluster + 1]; }
+
+    /** @return the node at a position of the per-cluster node list */
+    public int getClusterNode(int i) { return clusterNodes[i]; }
+
+    /** @return the first edge of a node */
+    public int getEdgeStart(int node) { return edgeStart[node]; }
+
+    /** @return one past the last edge of a node */
+    public int getEdgeEnd(int node) { return edgeStart[node + 1]; }
+
+    /** @return the node an edge leads to */
+    public int getEdgeTo(int edge) { return edgeTo[edge]; }
+
+    /** @return the cost of an edge */
+    public int getEdgeCost(int edge) { return edgeCost[edge]; }
+
+    /** Builds the clusters, entrances and intra-cluster distances from scratch */
+    private void build() {
+        width = level.getTileGridWidth();
+        height = level.getTileGridHeight();
+        clustersX = (width + clusterSize - 1) / clusterSize;
+        clustersY = (height + clusterSize - 1) / clusterSize;
+        builtVersion = level.getStaticVersion();
+
+        if (tileNode == null || tileNode.length != width * height)
+            tileNode = new int[width * height];
+        Arrays.fill(tileNode, -1);
+        nodes.clear();
+        edgeFrom.clear();
+        edgeDest.clear();
+        edgeWeight.clear();
+
+        findEntrances();
+        nodeTile = nodes.toArray();
+
+        // Group nodes by cluster
+        int numClusters = clustersX * clustersY;
+        clusterStart = new int[numClusters + 1];
+        for (int n = 0; n < nodeTile.length; n++)
+            clusterStart[clusterOf(nodeTile[n] % width, nodeTile[n] / width) + 1]++;
+        for (int c = 0; c < numClusters; c++)
+            clusterStart[c + 1] += clusterStart[c];
+        clusterNodes = new int[nodeTile.length];
+        int[] fill = Arrays.copyOf(clusterStart, numClusters);
+        for (int n = 0; n < nodeTile.length; n++)
+            clusterNodes[fill[clusterOf(nodeTile[n] % width, nodeTile[n] / width)]++] = n;
+
+        // Intra-cluster edges
+        for (int c = 0; c < numClusters; c++) {
+            int x0 = (c % clustersX) * clusterSize, y0 = (c / clustersX) * clusterSize;
+            int x1 = Math.min(width, x0 + clusterSize), y1 = Math.min(height, y0 + clusterSize);
+            for (int i = clusterStart[c]; i < clusterStart[c + 1]; i++) {
+                int from = clusterNodes[i];
+                search.run(x0, y0, x1, y1, nodeTile[from] % width, nodeTile[from] / width, -1, -1);
+                for (int j = clusterStart[c]; j < clusterStart[c + 1]; j++) {
+                    int to = clusterNodes[j];
+                    int d = search.getDistance(nodeTile[to] % width, nodeTile[to] / width);
+                    if (to != from && d >= 0) addEdge(from, to, d);
+                }
+            }
+        }
+
+        // Compact edges by source node
+        edgeStart = new int[nodeTile.length + 1];
+        for (int e = 0; e < edgeFrom.size; e++)
+            edgeStart[edgeFrom.get(e) + 1]++;
+        for (int n = 0; n < nodeTile.length; n++)
+            edgeStart[n + 1] += edgeStart[n];
+        edgeTo = new int[edgeFrom.size];
+        edgeCost = new int[edgeFrom.size];
+        fill = Arrays.copyOf(edgeStart, nodeTile.length);
+        for (int e = 0; e < edgeFrom.size; e++) {
+            int slot = fill[edgeFrom.get(e)]++;
+            edgeTo[slot] = edgeDest.get(e);
+            edgeCost[slot] = edgeWeight.get(e);
+        }
+    }
+
+    /** Adds a transition for every opening between neighboring clusters */
+    private void findEntrances() {
+        // Vertical borders (between horizontally neighboring clusters)
+        for (int bx = clusterSize; bx < width; bx += clusterSize) {
+            for (int y0 = 0; y0 < height; y0 += clusterSize) {
+                int y1 = Math.min(height, y0 + clusterSize);
+                int runStart = -1;
+                for (int y = y0; y <= y1; y++) {
+                    boolean open = y < y1 && isOpen(bx - 1, y, bx, y);
+                    if (open && runStart < 0) {
+                        runStart = y;
+                    } else if (!open && runStart >= 0) {
+                        int last = y - 1;
+                        if (last - runStart + 1 >= MIN_DOUBLE_ENTRANCE) {
+                            addTransition(bx - 1, runStart, bx, runStart, STRAIGHT_COST);
+                            addTransition(bx - 1, last, bx, last, STRAIGHT_COST);
+                        } else {
+                            int mid = (runStart + last) / 2;
+                            addTransition(bx - 1, mid, bx, mid, STRAIGHT_COST);
+                        }
+                        runStart = -1;
+                    }
+                }
+                // Diagonal steps across the border where neither row next to them is open straight across
+                for (int y = y0; y + 1 < y1; y++) {
+                    if (isOpen(bx - 1, y, bx, y) || isOpen(bx - 1, y + 1, bx, y + 1)) continue;
+                    if (isOpen(bx - 1, y, bx, y + 1)) addTransition(bx - 1, y, bx, y + 1, DIAGONAL_COST);
+                    if (isOpen(bx - 1, y + 1, bx, y)) addTransition(bx - 1, y + 1, bx, y, DIAGONAL_COST);
+                }
+            }
+        }
+        // Horizontal borders (between vertically neighboring clusters)
+        for (int by = clusterSize; by < height; by += clusterSize) {
+            for (int x0 = 0; x0 < width; x0 += clusterSize) {
+                int x1 = Math.min(width, x0 + clusterSize);
+                int runStart = -1;
+                for (int x = x0; x <= x1; x++) {
+                    boolean open = x < x1 && isOpen(x, by - 1, x, by);
+                    if (open && runStart < 0) {
+                        runStart = x;
+                    } else if (!open && runStart >= 0) {
+                        int last = x - 1;
+                        if (last - runStart + 1 >= MIN_DOUBLE_ENTRANCE) {
+                            addTransition(runStart, by - 1, runStart, by, STRAIGHT_COST);
+                            addTransition(last, by - 1, last, by, STRAIGHT_COST);
+                        } else {
+                            int mid = (runStart + last) / 2;
+                            addTransition(mid, by - 1, mid, by, STRAIGHT_COST);
+                        }
+                        runStart = -1;
+                    }
+                }
+                for (int x = x0; x + 1 < x1; x++) {
+                    if (isOpen(x, by - 1, x, by) || isOpen(x + 1, by - 1, x + 1, by)) continue;
+                    if (isOpen(x, by - 1, x + 1, by)) addTransition(x, by - 1, x + 1, by, DIAGONAL_COST);
+                    if (isOpen(x + 1, by - 1, x, by)) addTransition(x + 1, by - 1, x, by, DIAGONAL_COST);
+                }
+            }
+        }
+        // Diagonal steps across the corner shared by four clusters
+        for (int bx = clusterSize; bx < width; bx += clusterSize) {
+            for (int by = clusterSize; by < height; by += clusterSize) {
+                if (isOpen(bx - 1, by - 1, bx, by)) addTransition(bx - 1, by - 1, bx, by, DIAGONAL_COST);
+                if (isOpen(bx, by - 1, bx - 1, by)) addTransition(bx, by - 1, bx - 1, by, DIAGONAL_COST);
+            }
+        }
+    }
+
+    /** Whether both tiles of a step are walkable */
+    private boolean isOpen(int ax, int ay, int bx, int by) {
+        return level.isWalkable(ax, ay) && level.isWalkable(bx, by);
+    }
+
+    /** Joins two neighboring tiles in different clusters with an inter-cluster edge in both directions */
+    private void addTransition(int ax, int ay, int bx, int by, int cost) {
+        int a = nodeAt(ax, ay), b = nodeAt(bx, by);
+        addEdge(a, b, cost);
+        addEdge(b, a, cost);
+    }
+
+    /** Returns the node at a tile, creating it if needed */
+    private int nodeAt(int x, int y) {
+        int idx = x + y * width;
+        if (tileNode[idx] < 0) {
+            tileNode[idx] = nodes.size;
+            nodes.add(idx);
+        }
+        return tileNode[idx];
+    }
+
+    private void addEdge(int from, int to, int cost) {
+        edgeFrom.add(from);
+        edgeDest.add(to);
+        edgeWeight.add(cost);
+    }
+}
@@ -0,0 +1,215 @@
+package com.fallenflame.game.enemies;
+
+import com.fallenflame.game.LevelModel;
+
+import java.util.Arrays;
+
+/**
+ * Dijkstra search confined to one rectangular cluster of LevelModel tiles.
+ *
+ * Used by ClusterGraph to measure distances between the entrances of a cluster, and by HierarchicalPlanner to
+ * connect a start or goal tile to the entrances of its cluster. Costs match AStarPlanner (10 straight, 14 diagonal).
+ * All arrays are sized to one cluster and reused, so a search does not allocate.
+ */
+class ClusterSearch {
+    private static final int STRAIGHT_COST = 10;
+    private static final int DIAGONAL_COST = 14;
+
+    /** The level to search */
+    private final LevelModel level;
+    /** Bounds of the last searched cluster (x1 and y1 exclusive) */
+    private int x0, y0, x1, y1;
+    /** Width of the last searched cluster */
+    private int w;
+
+    /** Distance from the origin of each cluster-local tile, valid when seen in the current generation */
+    private int[] dist;
+    /** First move (index into AIController.MOVE_*) from the origin toward each cluster-local tile */
+    private int[] firstMove;
+    private int[] seen;
+    private int[] closed;
+    private int[] heapPos;
+    private int[] heap;
+    private int heapSize;
+    private int generation;
+
+    /**
+     * @param level The level to search
+     * @param clusterSize Side length (in tiles) of the largest cluster that will be searched
+     */
+    ClusterSearch(LevelModel level, int clusterSize) {
+        this.level = level;
+        int n = clusterSize * clusterSize;
+        dist = new int[n];
+        firstMove = new int[n];
+        seen = new int[n];
+        closed = new int[n];
+        heapPos = new int[n];
+        heap = new int[n];
+    }
+
+    /**
+     * Finds the distance from the origin to every tile of the cluster it can reach without leaving the cluster.
+     *
+     * Tiles other than the origin must be walkable, except the given enterable tile (a goal tile), which paths may
+     * end on but not pass through.
+     *
+     * @param x0 Left tile column of the cluster
+     * @param y0 Bottom tile row of the cluster
+     * @param x1 One past the right tile column of the cluster
+     * @param y1 One past the top tile row of the cluster
+     * @param originX Origin tile x-coor (inside the cluster)
+     * @param originY Origin tile y-coor (inside the cluster)
+     * @param enterableX x-coor of a non-walkable tile that may still be entered, or -1
+     * @param enterableY y-coor of a non-walkable tile that may still be entered, or -1
+     */
+    void run(int x0, int y0, int x1, int y1, int originX, int originY, int enterableX, int enterableY) {
+        begin(x0, y0, x1, y1);
+        seed(originX, originY, 0);
+        expand(enterableX, enterableY);
+    }
+
+    /**
+     * Starts a multi-source search of a cluster. Add the sources with seed(), then call expand().
+     *
+     * @param x0 Left tile column of the cluster
+     * @param y0 Bottom tile row of the cluster
+     * @param x1 One past the right tile column of the cluster
+     * @param y1 One past the top tile row of the cluster
+     */
+    void begin(int x0, int y0, int x1, int y1) {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+        w = x1 - x0;
+        heapSize = 0;
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Adds a source tile of the current search. Tiles reached from a source have no first move recorded for it.
+     *
+     * @param x Tile x-coor (inside the cluster)
+     * @param y Tile y-coor (inside the cluster)
+     * @param cost Distance already travelled to the source
+     */
+    void seed(int x, int y, int cost) {
+        int idx = local(x, y);
+        if (seen[idx] == generation) {
+            if (dist[idx] <= cost) return;
+            dist[idx] = cost;
+            siftUp(heapPos[idx]);
+            return;
+        }
+        seen[idx] = generation;
+        dist[idx] = cost;
+        firstMove[idx] = -1;
+        push(idx);
+    }
+
+    /**
+     * Runs the current search to completion. The enterable tile may be reached, but no path continues from it.
+     *
+     * @param enterableX x-coor of a non-walkable tile that may still be entered, or -1
+     * @param enterableY y-coor of a non-walkable tile that may still be entered, or -1
+     */
+    void expand(int enterableX, int enterableY) {
+        while (heapSize > 0) {
+            int curr = pop();
+            closed[curr] = generation;
+            int cx = x0 + curr % w, cy = y0 + curr / w;
+            // The enterable tile ends a path but is not walked through (unless the search starts on it)
+            if (cx == enterableX && cy == enterableY && firstMove[curr] >= 0) continue;
+            for (int i = 0; i < AIController.MOVE_CTRL.length; i++) {
+                int x = cx + AIController.MOVE_DX[i], y = cy + AIController.MOVE_DY[i];
+                if (x < x0 || x >= x1 || y < y0 || y >= y1) continue;
+                if (!level.isWalkable(x, y) && !(x == enterableX && y == enterableY)) continue;
+                int idx = local(x, y);
+                if (closed[idx] == generation) continue;
+                int cost = dist[curr] + (i < 4 ? STRAIGHT_COST : DIAGONAL_COST);
+                if (seen[idx] == generation && dist[idx] <= cost) continue;
+                dist[idx] = cost;
+                firstMove[idx] = firstMove[curr] < 0 ? i : firstMove[curr];
+                if (seen[idx] != generation) {
+                    seen[idx] = generation;
+                    push(idx);
+                } else {
+                    siftUp(heapPos[idx]);
+                }
+            }
+        }
+    }
+
+    /** @return whether a tile is inside the last searched cluster */
+    boolean contains(int x, int y) {
+        return x >= x0 && x < x1 && y >= y0 && y < y1;
+    }
+
+    /** @return the distance from the origin to a tile of the last searched cluster, or -1 if it was not reached */
+    int getDistance(int x, int y) {
+        if (!contains(x, y)) return -1;
+        int idx = local(x, y);
+        return seen[idx] == generation ? dist[idx] : -1;
+    }
+
+    /** @return the first move from the origin toward a reached tile, or -1 for the origin itself */
+    int getFirstMove(int x, int y) {
+        return firstMove[local(x, y)];
+    }
+
+    private int local(int x, int y) {
+        return (x - x0) + (y - y0) * w;
+    }
+
+    private void push(int idx) {
+        heap[heapSize] = idx;
+        heapPos[idx] = heapSize;
+        heapSize++;
+        siftUp(heapSize - 1);
+    }
+
+    private int pop() {
+        int top = heap[0];
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapPos[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int idx = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (dist[idx] >= dist[heap[parent]]) break;
+            heap[i] = heap[parent];
+            heapPos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = idx;
+        heapPos[idx] = i;
+    }
+
+    private void siftDown(int i) {
+        int idx = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && dist[heap[child + 1]] < dist[heap[child]]) child++;
+            if (dist[heap[child]] >= dist[idx]) break;
+            heap[i] = heap[child];
+            heapPos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = idx;
+        heapPos[idx] = i;
+    }
+}
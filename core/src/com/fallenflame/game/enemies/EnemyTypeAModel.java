@@ -8,6 +8,9 @@ public class EnemyTypeAModel extends EnemyModel {
     /** Position to investigate. Player last known location or flare */
     protected Vector2 investigatePosition;
 
+    /** Backing vector for positions set by coordinates, reused so re-targeting does not allocate */
+    private final Vector2 investigateCache = new Vector2();
+
     /** Flare to investigate (null if investigating player last known location) */
     protected FlareModel investigateFlare;
 
@@ -75,7 +78,12 @@ public class EnemyTypeAModel extends EnemyModel {
      * @param y y-coor of enemy's investigation position
      */
     public void setInvestigatePosition(float x, float y) {
-        setInvestigatePosition(new Vector2(x, y));
+        setInvestigatePosition(investigateCache.set(x, y));
     }
 
+    /**
+     * @return whether the enemy has a position to investigate
+     */
+    public boolean hasInvestigatePosition() { return investigatePosition != null; }
+
 }
@@ -0,0 +1,361 @@
+package com.fallenflame.game.enemies;
+
+import com.fallenflame.game.LevelModel;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical (HPA*) path planner over a level's ClusterGraph.
+ *
+ * A query connects the start and goal tiles to the entrances of their own clusters with a Dijkstra search confined
+ * to that cluster, then runs A* over the abstract graph. Only the leading segment of the abstract path (start to the
+ * first entrance, or straight to the goal) is refined to a tile move, and that refinement is read directly from the
+ * start cluster's search. A query therefore costs two cluster-sized searches plus an abstract search whose size
+ * grows with the number of entrances rather than the number of tiles.
+ *
+ * Each controller owns its own planner; the shared ClusterGraph is only read.
+ */
+public class HierarchicalPlanner {
+    /** The abstract graph to plan on */
+    private final ClusterGraph graph;
+    /** The level the graph abstracts */
+    private final LevelModel level;
+    /** Searches connecting the start and goal tiles to their clusters */
+    private final ClusterSearch startSearch;
+    private final ClusterSearch goalSearch;
+    /** Flat planner for starts the cluster searches cannot leave from (a start tile that is not walkable) */
+    private AStarPlanner fallback;
+
+    /** Node count the arrays are sized for; the start and goal are the two extra nodes after the real ones */
+    private int nodeCount;
+    private int[] g;
+    private int[] f;
+    private int[] parent;
+    private int[] seen;
+    private int[] closed;
+    private int[] heapPos;
+    private int[] heap;
+    private int heapSize;
+    private int generation;
+    /** Distance from each node to the goal within the goal's clusters, valid when goalSeen is the generation */
+    private int[] goalCost;
+    private int[] goalSeen;
+    /** Tile of the start's cluster through which the start reaches the goal directly (see connectStartToGoal()) */
+    private int viaX;
+    private int viaY;
+
+    /** Number of abstract nodes expanded by the last query */
+    private int expanded;
+
+    /**
+     * Creates a planner over the given abstract graph.
+     *
+     * @param graph The level's abstract graph
+     */
+    public HierarchicalPlanner(ClusterGraph graph) {
+        this.graph = graph;
+        this.level = graph.getLevel();
+        startSearch = new ClusterSearch(level, graph.getClusterSize());
+        goalSearch = new ClusterSearch(level, graph.getClusterSize());
+    }
+
+    /** @return the abstract graph this planner searches */
+    public ClusterGraph getGraph() { return graph; }
+
+    /** @return the number of abstract nodes expanded by the last query */
+    public int getExpanded() { return expanded; }
+
+    /**
+     * Finds the first move of a path from the start tile to the goal tile.
+     *
+     * As with AStarPlanner, every tile after the start must be walkable except the goal.
+     *
+     * @param startX Start tile x-coor
+     * @param startY Start tile y-coor
+     * @param goalX Goal tile x-coor
+     * @param goalY Goal tile y-coor
+     * @return index into AIController.MOVE_* of the first move, or -1 if there is no path or start is the goal
+     */
+    public int findFirstMove(int startX, int startY, int goalX, int goalY) {
+        expanded = 0;
+        if ((startX == goalX && startY == goalY) || !level.inBounds(goalX, goalY)
+                || !level.inBounds(startX, startY)) return -1;
+        // A neighboring goal is always best reached in one step
+        for (int m = 0; m < AIController.MOVE_CTRL.length; m++) {
+            if (startX + AIController.MOVE_DX[m] == goalX && startY + AIController.MOVE_DY[m] == goalY) return m;
+        }
+        if (!level.isWalkable(startX, startY)) {
+            if (fallback == null) fallback = new AStarPlanner(level);
+            return fallback.findFirstMove(startX, startY, goalX, goalY);
+        }
+        ensureCapacity();
+        nextGeneration();
+
+        int startCluster = graph.clusterOf(startX, startY);
+        int goalCluster = graph.clusterOf(goalX, goalY);
+        runClusterSearch(startSearch, startCluster, startX, startY, goalX, goalY);
+        connectGoal(goalX, goalY, goalCluster);
+
+        int start = nodeCount, goal = nodeCount + 1;
+        seen[start] = generation;
+        g[start] = 0;
+        parent[start] = -1;
+        f[start] = heuristic(startX, startY, goalX, goalY);
+        push(start);
+
+        while (heapSize > 0) {
+            int curr = pop();
+            if (curr == goal) return leadingMove(startX, startY, goalX, goalY);
+            closed[curr] = generation;
+            expanded++;
+
+            if (curr == start) {
+                // Start connects to every entrance of its cluster it can reach, and to the goal if it shares it
+                for (int i = graph.getClusterStart(startCluster); i < graph.getClusterEnd(startCluster); i++) {
+                    int node = graph.getClusterNode(i);
+                    int tile = graph.getNodeTile(node);
+                    int d = startSearch.getDistance(tile % width(), tile / width());
+                    if (d >= 0) relax(curr, node, d, goalX, goalY);
+                }
+                int d = connectStartToGoal(goalX, goalY);
+                if (d >= 0) relax(curr, goal, d, goalX, goalY);
+                continue;
+            }
+
+            for (int e = graph.getEdgeStart(curr); e < graph.getEdgeEnd(curr); e++)
+                relax(curr, graph.getEdgeTo(e), graph.getEdgeCost(e), goalX, goalY);
+            if (goalSeen[curr] == generation) relax(curr, goal, goalCost[curr], goalX, goalY);
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the shortest way to the goal without leaving the start's cluster, either to the goal itself or (for a
+     * goal that is not walkable) to one of its neighbors in the cluster. Remembers the last tile of that way inside
+     * the cluster for leadingMove().
+     *
+     * @return the distance, or -1 if the goal cannot be reached within the start's cluster
+     */
+    private int connectStartToGoal(int goalX, int goalY) {
+        int best = startSearch.getDistance(goalX, goalY);
+        viaX = goalX;
+        viaY = goalY;
+        if (level.isWalkable(goalX, goalY)) return best;
+        for (int m = 0; m < AIController.MOVE_CTRL.length; m++) {
+            int x = goalX + AIController.MOVE_DX[m], y = goalY + AIController.MOVE_DY[m];
+            int d = startSearch.getDistance(x, y);
+            if (d < 0) continue;
+            d += m < 4 ? 10 : 14;
+            if (best < 0 || d < best) {
+                best = d;
+                viaX = x;
+                viaY = y;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Records the distance to the goal from every node that can reach it without leaving the goal's cluster.
+     *
+     * A goal that is not walkable may be entered from any walkable neighbor, including neighbors in other clusters,
+     * so the clusters of those neighbors are searched from them as well.
+     */
+    private void connectGoal(int goalX, int goalY, int goalCluster) {
+        runClusterSearch(goalSearch, goalCluster, goalX, goalY, -1, -1);
+        recordGoalCosts(goalCluster);
+        if (level.isWalkable(goalX, goalY)) return;
+
+        for (int m = 0; m < AIController.MOVE_CTRL.length; m++) {
+            int x = goalX + AIController.MOVE_DX[m], y = goalY + AIController.MOVE_DY[m];
+            if (!level.isWalkable(x, y)) continue;
+            int cluster = graph.clusterOf(x, y);
+            if (cluster == goalCluster || searchedBefore(goalX, goalY, m, cluster)) continue;
+
+            int size = graph.getClusterSize();
+            int x0 = (cluster % graph.getClustersX()) * size, y0 = (cluster / graph.getClustersX()) * size;
+            goalSearch.begin(x0, y0, Math.min(width(), x0 + size), Math.min(level.getTileGridHeight(), y0 + size));
+            for (int n = m; n < AIController.MOVE_CTRL.length; n++) {
+                int nx = goalX + AIController.MOVE_DX[n], ny = goalY + AIController.MOVE_DY[n];
+                if (level.isWalkable(nx, ny) && graph.clusterOf(nx, ny) == cluster)
+                    goalSearch.seed(nx, ny, n < 4 ? 10 : 14);
+            }
+            goalSearch.expand(-1, -1);
+            recordGoalCosts(cluster);
+        }
+    }
+
+    /** Whether a walkable neighbor of the goal before move m already lies in the given cluster */
+    private boolean searchedBefore(int goalX, int goalY, int m, int cluster) {
+        for (int n = 0; n < m; n++) {
+            int x = goalX + AIController.MOVE_DX[n], y = goalY + AIController.MOVE_DY[n];
+            if (level.isWalkable(x, y) && graph.clusterOf(x, y) == cluster) return true;
+        }
+        return false;
+    }
+
+    /** Copies the goal search's distances to the nodes of the searched cluster */
+    private void recordGoalCosts(int cluster) {
+        for (int i = graph.getClusterStart(cluster); i < graph.getClusterEnd(cluster); i++) {
+            int node = graph.getClusterNode(i);
+            int tile = graph.getNodeTile(node);
+            int d = goalSearch.getDistance(tile % width(), tile / width());
+            if (d >= 0 && (goalSeen[node] != generation || d < goalCost[node])) {
+                goalSeen[node] = generation;
+                goalCost[node] = d;
+            }
+        }
+    }
+
+    /**
+     * Refines the leading segment of the abstract path found to the goal into the first tile move.
+     */
+    private int leadingMove(int startX, int startY, int goalX, int goalY) {
+        int start = nodeCount, goal = nodeCount + 1;
+        int startTile = startX + startY * width();
+        // Walk back to the first waypoint after the start that is not the start tile itself
+        int waypoint = goal;
+        for (int n = parent[goal]; n != start; n = parent[n]) {
+            if (graph.getNodeTile(n) != startTile) waypoint = n;
+        }
+        int wx, wy;
+        if (waypoint == goal && parent[goal] == start) {
+            wx = viaX;
+            wy = viaY;
+        } else if (waypoint == goal) {
+            wx = goalX;
+            wy = goalY;
+        } else {
+            int tile = graph.getNodeTile(waypoint);
+            wx = tile % width();
+            wy = tile / width();
+        }
+        if (startSearch.getDistance(wx, wy) > 0)
+            return startSearch.getFirstMove(wx, wy);
+        // The waypoint is the other side of an entrance the start stands on
+        int dx = wx - startX, dy = wy - startY;
+        for (int m = 0; m < AIController.MOVE_CTRL.length; m++) {
+            if (AIController.MOVE_DX[m] == dx && AIController.MOVE_DY[m] == dy) return m;
+        }
+        return -1;
+    }
+
+    /** Searches the cluster with the given index from an origin tile */
+    private void runClusterSearch(ClusterSearch search, int cluster, int originX, int originY,
+                                  int enterableX, int enterableY) {
+        int size = graph.getClusterSize();
+        int x0 = (cluster % graph.getClustersX()) * size, y0 = (cluster / graph.getClustersX()) * size;
+        search.run(x0, y0, Math.min(width(), x0 + size), Math.min(level.getTileGridHeight(), y0 + size),
+                originX, originY, enterableX, enterableY);
+    }
+
+    /** Offers a path to an abstract node through another, opening or improving it if it is better */
+    private void relax(int from, int to, int edgeCost, int goalX, int goalY) {
+        if (closed[to] == generation) return;
+        int cost = g[from] + edgeCost;
+        if (seen[to] == generation && g[to] <= cost) return;
+
+        g[to] = cost;
+        parent[to] = from;
+        if (to == nodeCount + 1) {
+            f[to] = cost;
+        } else {
+            int tile = graph.getNodeTile(to);
+            f[to] = cost + heuristic(tile % width(), tile / width(), goalX, goalY);
+        }
+        if (seen[to] != generation) {
+            seen[to] = generation;
+            push(to);
+        } else {
+            siftUp(heapPos[to]);
+        }
+    }
+
+    private int width() { return level.getTileGridWidth(); }
+
+    /** Octile distance between two tiles, in AStarPlanner's cost units (10 straight, 14 diagonal) */
+    private static int heuristic(int x, int y, int goalX, int goalY) {
+        int dx = Math.abs(x - goalX), dy = Math.abs(y - goalY);
+        return 10 * Math.max(dx, dy) + 4 * Math.min(dx, dy);
+    }
+
+    /** Whether node a should come out of the heap before node b (lower f, then higher g) */
+    private boolean before(int a, int b) {
+        return f[a] < f[b] || (f[a] == f[b] && g[a] > g[b]);
+    }
+
+    private void push(int node) {
+        heap[heapSize] = node;
+        heapPos[node] = heapSize;
+        heapSize++;
+        siftUp(heapSize - 1);
+    }
+
+    private int pop() {
+        int top = heap[0];
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapPos[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int node = heap[i];
+        while (i > 0) {
+            int p = (i - 1) >> 1;
+            if (!before(node, heap[p])) break;
+            heap[i] = heap[p];
+            heapPos[heap[i]] = i;
+            i = p;
+        }
+        heap[i] = node;
+        heapPos[node] = i;
+    }
+
+    private void siftDown(int i) {
+        int node = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child])) child++;
+            if (!before(heap[child], node)) break;
+            heap[i] = heap[child];
+            heapPos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = node;
+        heapPos[node] = i;
+    }
+
+    /** Starts a new search, invalidating all per-node marks from previous searches */
+    private void nextGeneration() {
+        heapSize = 0;
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            Arrays.fill(goalSeen, 0);
+            generation = 1;
+        }
+    }
+
+    /** (Re)allocates the per-node arrays if the graph was rebuilt with a different node count */
+    private void ensureCapacity() {
+        if (g != null && graph.getNodeCount() == nodeCount) return;
+        nodeCount = graph.getNodeCount();
+        int n = nodeCount + 2;
+        g = new int[n];
+        f = new int[n];
+        parent = new int[n];
+        seen = new int[n];
+        closed = new int[n];
+        heapPos = new int[n];
+        heap = new int[n];
+        goalCost = new int[n];
+        goalSeen = new int[n];
+        generation = 0;
+    }
+}
@@ -0,0 +1,160 @@
+package com.fallenflame.game.enemies;
+
+import com.badlogic.gdx.ai.pfa.Connection;
+import com.badlogic.gdx.ai.pfa.Heuristic;
+import com.badlogic.gdx.ai.pfa.indexed.IndexedGraph;
+import com.badlogic.gdx.utils.Array;
+import com.fallenflame.game.LevelModel;
+
+/**
+ * gdx-ai view of the tiles of a LevelModel.
+ *
+ * Every tile is a node whose index is LevelModel.tileIndex(). Each node connects to its walkable neighbors in the
+ * eight movement directions of AIController (in the same order), with straight moves costing 1 and diagonal moves
+ * costing sqrt(2). Nodes and connections are built once and only rebuilt when the level's walls or trees change, so
+ * searches never allocate them.
+ */
+public class LevelGraph implements IndexedGraph<LevelGraph.Node> {
+    /** Cost of a diagonal move */
+    private static final float DIAGONAL_COST = (float) Math.sqrt(2);
+
+    /** A tile of the level */
+    public static class Node {
+        /** Tile x-coor */
+        public final int x;
+        /** Tile y-coor */
+        public final int y;
+        /** Flat tile index (x + y * grid width) */
+        public final int index;
+
+        private Node(int x, int y, int index) {
+            this.x = x;
+            this.y = y;
+            this.index = index;
+        }
+    }
+
+    /** A move from one tile to a neighboring tile */
+    private static class TileConnection implements Connection<Node> {
+        private final Node from;
+        private final Node to;
+        private final float cost;
+
+        private TileConnection(Node from, Node to, float cost) {
+            this.from = from;
+            this.to = to;
+            this.cost = cost;
+        }
+
+        @Override
+        public float getCost() { return cost; }
+
+        @Override
+        public Node getFromNode() { return from; }
+
+        @Override
+        public Node getToNode() { return to; }
+    }
+
+    /** Octile distance between two tiles; admissible and consistent for the costs above */
+    public static final Heuristic<Node> OCTILE = new Heuristic<Node>() {
+        @Override
+        public float estimate(Node node, Node endNode) {
+            int dx = Math.abs(node.x - endNode.x), dy = Math.abs(node.y - endNode.y);
+            return Math.max(dx, dy) + (DIAGONAL_COST - 1) * Math.min(dx, dy);
+        }
+    };
+
+    /** The level this graph views */
+    private final LevelModel level;
+    /** Grid dimensions the graph was built for */
+    private int width;
+    private int height;
+    /** LevelModel static version the connections were built for */
+    private int builtVersion;
+    /** Node of each tile, indexed by tile index */
+    private Node[] nodes;
+    /** Outgoing connections of each tile, indexed by tile index */
+    private Array<Connection<Node>>[] connections;
+
+    /**
+     * Creates a graph over the given level and builds it.
+     *
+     * @param level The level to view. Must already be initialized.
+     */
+    public LevelGraph(LevelModel level) {
+        this.level = level;
+        refresh();
+    }
+
+    /**
+     * Rebuilds the nodes and connections if the level's static obstacles or grid size changed since the last build.
+     *
+     * Nodes are only recreated when the grid changes size, so nodes handed out earlier stay valid across a
+     * connection rebuild.
+     *
+     * @return whether anything was rebuilt
+     */
+    public boolean refresh() {
+        boolean resized = nodes == null
+                || level.getTileGridWidth() != width || level.getTileGridHeight() != height;
+        if (!resized && level.getStaticVersion() == builtVersion) return false;
+
+        if (resized) {
+            width = level.getTileGridWidth();
+            height = level.getTileGridHeight();
+            nodes = new Node[width * height];
+            connections = newConnectionLists(width * height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int idx = x + y * width;
+                    nodes[idx] = new Node(x, y, idx);
+                    connections[idx] = new Array<>(false, AIController.MOVE_CTRL.length);
+                }
+            }
+        }
+
+        for (Node node : nodes) {
+            Array<Connection<Node>> out = connections[node.index];
+            out.clear();
+            for (int i = 0; i < AIController.MOVE_CTRL.length; i++) {
+                int x = node.x + AIController.MOVE_DX[i], y = node.y + AIController.MOVE_DY[i];
+                if (level.isWalkable(x, y))
+                    out.add(new TileConnection(node, nodes[x + y * width], i < 4 ? 1 : DIAGONAL_COST));
+            }
+        }
+        builtVersion = level.getStaticVersion();
+        return true;
+    }
+
+    /**
+     * Creates the (empty) array of per-node connection lists. Arrays of a generic type can only be created unchecked.
+     *
+     * @param n Number of nodes
+     * @return the array
+     */
+    @SuppressWarnings("unchecked")
+    private static Array<Connection<Node>>[] newConnectionLists(int n) {
+        return (Array<Connection<Node>>[]) new Array<?>[n];
+    }
+
+    /**
+     * Returns the node of a tile
+     *
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @return the node, or null if the tile is out of bounds
+     */
+    public Node getNode(int x, int y) {
+        return level.inBounds(x, y) ? nodes[x + y * width] : null;
+    }
+
+    @Override
+    public int getIndex(Node node) { return node.index; }
+
+    @Override
+    public int getNodeCount() { return nodes.length; }
+
+    @Override
+    public Array<Connection<Node>> getConnections(Node fromNode) { return connections[fromNode.index]; }
+}
@@ -0,0 +1,125 @@
+package com.fallenflame.game.enemies;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntIntMap;
+import com.fallenflame.game.LevelModel;
+
+import java.util.Arrays;
+
+/**
+ * Precomputed routes to the patrol waypoints of a level.
+ *
+ * For every distinct waypoint tile there is a table holding, for every tile of the level, the first move of a
+ * shortest path to the waypoint on the static (wall and tree) grid. The route between two consecutive waypoints is
+ * the path the table of the second one gives from the first, and an enemy knocked off its route (after a chase, say)
+ * follows the same table straight back, so idle patrol movement is a single lookup. First moves are picked the same
+ * way as the BFS planner (the first neighbor, in path finder order, closest to the waypoint).
+ *
+ * Tables are built when waypoints are added, during LevelController.populate(), and shared by every enemy patrolling
+ * through the same tile.
+ */
+public class PatrolRoutes {
+    /** The level the routes cross */
+    private final LevelModel level;
+    /** Table of each waypoint tile index */
+    private final IntIntMap tableOfTile = new IntIntMap();
+    /** Move table of each waypoint: index into AIController.MOVE_* per tile, or -1 if there is no path */
+    private final Array<byte[]> tables = new Array<>();
+    /** LevelModel static version the tables were built for */
+    private final int builtVersion;
+
+    /** BFS scratch used while building tables */
+    private final int[] dist;
+    private final int[] queue;
+
+    /**
+     * Creates an empty set of routes on the given level.
+     *
+     * @param level The level to route on. Must already be initialized.
+     */
+    public PatrolRoutes(LevelModel level) {
+        this.level = level;
+        builtVersion = level.getStaticVersion();
+        dist = new int[level.getTileGridWidth() * level.getTileGridHeight()];
+        queue = new int[dist.length];
+    }
+
+    /**
+     * Returns the table of routes to a waypoint, building it if no patrol has used the tile yet.
+     *
+     * @param x Waypoint tile x-coor
+     * @param y Waypoint tile y-coor
+     * @return the table id, or -1 if the tile is out of bounds
+     */
+    public int addWaypoint(int x, int y) {
+        if (!level.inBounds(x, y)) return -1;
+        int target = level.tileIndex(x, y);
+        int table = tableOfTile.get(target, -1);
+        if (table >= 0) return table;
+
+        table = tables.size;
+        tableOfTile.put(target, table);
+        tables.add(buildTable(x, y));
+        return table;
+    }
+
+    /**
+     * Returns the first move from a tile toward a waypoint.
+     *
+     * @param table Table id from addWaypoint()
+     * @param x Tile x-coor
+     * @param y Tile y-coor
+     * @return index into AIController.MOVE_*, or -1 if the tile is the waypoint, cannot reach it, or is out of bounds
+     */
+    public int getMove(int table, int x, int y) {
+        if (table < 0 || !level.inBounds(x, y)) return -1;
+        return tables.get(table)[level.tileIndex(x, y)];
+    }
+
+    /** @return whether walls or trees changed since the tables were built, so routes may cross blocked tiles */
+    public boolean isStale() { return level.getStaticVersion() != builtVersion; }
+
+    /** @return the number of waypoint tables */
+    public int getTableCount() { return tables.size; }
+
+    /** Builds the move table of routes to one waypoint */
+    private byte[] buildTable(int targetX, int targetY) {
+        int w = level.getTileGridWidth();
+        Arrays.fill(dist, -1);
+        int head = 0, tail = 0;
+        int target = targetX + targetY * w;
+        dist[target] = 0;
+        queue[tail++] = target;
+        while (head < tail) {
+            int idx = queue[head++];
+            int x = idx % w, y = idx / w;
+            for (int i = 0; i < AIController.MOVE_CTRL.length; i++) {
+                int nx = x + AIController.MOVE_DX[i], ny = y + AIController.MOVE_DY[i];
+                if (!level.isWalkable(nx, ny)) continue;
+                int n = nx + ny * w;
+                if (dist[n] != -1) continue;
+                dist[n] = dist[idx] + 1;
+                queue[tail++] = n;
+            }
+        }
+
+        byte[] moves = new byte[dist.length];
+        for (int idx = 0; idx < dist.length; idx++) {
+            int x = idx % w, y = idx / w;
+            int best = -1, bestDist = Integer.MAX_VALUE;
+            if (idx != target) {
+                for (int i = 0; i < AIController.MOVE_CTRL.length; i++) {
+                    int nx = x + AIController.MOVE_DX[i], ny = y + AIController.MOVE_DY[i];
+                    if (!level.inBounds(nx, ny)) continue;
+                    int d = dist[nx + ny * w];
+                    if (d >= 0 && d < bestDist) {
+                        best = i;
+                        bestDist = d;
+                    }
+                }
+            }
+            moves[idx] = (byte) best;
+        }
+        return moves;
+    }
+}
@@ -0,0 +1,98 @@
+package com.fallenflame.game.enemies;
+
+import com.badlogic.gdx.ai.msg.Telegram;
+import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
+import com.badlogic.gdx.ai.pfa.PathFinderQueue;
+import com.badlogic.gdx.ai.pfa.PathFinderRequest;
+import com.badlogic.gdx.ai.pfa.indexed.IndexedAStarPathFinder;
+import com.fallenflame.game.LevelModel;
+
+/**
+ * Level-wide path planning service built on gdx-ai.
+ *
+ * Controllers submit requests that are queued in a PathFinderQueue and searched by an IndexedAStarPathFinder over
+ * a LevelGraph. The queue only runs for a fixed time budget per tick (see run()), so a long search is spread over
+ * several frames instead of stalling one. One service is shared by every controller of a level.
+ */
+public class TimeSlicedPathPlanner {
+
+    /**
+     * A path request owned by one controller.
+     *
+     * A controller keeps a single request and resubmits it once the previous search has finished.
+     */
+    public static class Request extends PathFinderRequest<LevelGraph.Node> {
+        /** Whether the request is queued or being searched */
+        private boolean pending;
+
+        public Request() {
+            super(null, null, LevelGraph.OCTILE, new DefaultGraphPath<LevelGraph.Node>());
+        }
+
+        /** @return whether the request is queued or being searched */
+        public boolean isPending() { return pending && status != SEARCH_FINALIZED; }
+
+        /** @return the tile path found by the last finished search (start tile first), empty if none */
+        public DefaultGraphPath<LevelGraph.Node> getPath() { return (DefaultGraphPath<LevelGraph.Node>) resultPath; }
+    }
+
+    /** The graph searched by this service */
+    private final LevelGraph graph;
+    /** Queue of outstanding requests, searched in submission order */
+    private final PathFinderQueue<LevelGraph.Node> queue;
+    /** Reused telegram used to hand requests to the queue */
+    private final Telegram telegram;
+
+    /**
+     * Creates a planning service for the given level.
+     *
+     * @param level The level to plan on. Must already be initialized.
+     */
+    public TimeSlicedPathPlanner(LevelModel level) {
+        graph = new LevelGraph(level);
+        queue = new PathFinderQueue<>(new IndexedAStarPathFinder<>(graph));
+        telegram = new Telegram();
+    }
+
+    /** @return the graph searched by this service */
+    public LevelGraph getGraph() { return graph; }
+
+    /** @return the number of requests waiting to be searched */
+    public synchronized int getQueueSize() { return queue.size(); }
+
+    /**
+     * Queues a search from one tile to another.
+     *
+     * Controllers plan in parallel, so submission is synchronized. The request must not already be pending.
+     *
+     * @param request The controller's request
+     * @param startX Start tile x-coor
+     * @param startY Start tile y-coor
+     * @param goalX Goal tile x-coor
+     * @param goalY Goal tile y-coor
+     */
+    public synchronized void submit(Request request, int startX, int startY, int goalX, int goalY) {
+        assert !request.isPending() : "Path request submitted twice";
+        request.startNode = graph.getNode(startX, startY);
+        request.endNode = graph.getNode(goalX, goalY);
+        request.resultPath.clear();
+        request.pathFound = false;
+        request.pending = true;
+        telegram.extraInfo = request;
+        queue.handleMessage(telegram);
+        telegram.extraInfo = null;
+    }
+
+    /**
+     * Searches queued requests until the time budget runs out.
+     *
+     * Must be called from the main thread once per tick, outside of parallel planning. Rebuilds the graph first if
+     * the level's walls or trees changed.
+     *
+     * @param timeToRun Time budget in nanoseconds
+     */
+    public synchronized void run(long timeToRun) {
+        graph.refresh();
+        queue.run(timeToRun);
+    }
+}
@@ -29,6 +29,8 @@ public class PointSource extends PointLight implements LightSource {
 
 	/** Copy of the collision filter.  Necessary because the original version is private */
 	protected Filter collisions;
+	/** The number of rays this light was created with.  Its meshes are sized for these, so it can never cast more */
+	protected int maxRays;
 	
 	/**
 	 * Creates light shaped as a circle with default radius, color and position.
@@ -49,6 +51,7 @@ public class PointSource extends PointLight implements LightSource {
 	 */
 	public PointSource(RayHandler rayHandler, int rays) {
 		super(rayHandler, rays, DEFAULT_COLOR, DEFAULT_DISTANCE, 0f, 0f);
+		maxRays = rayNum;
 	}
 	
 	
@@ -72,6 +75,31 @@ public class PointSource extends PointLight implements LightSource {
 	 */
 	public PointSource(RayHandler rayHandler, int rays, Color color, float distance, float x, float y) {
 		super(rayHandler, rays, color, distance, x, y);
+		maxRays = rayNum;
+	}
+
+	/**
+	 * Returns the most rays this light can cast (the number it was created with)
+	 *
+	 * @return the most rays this light can cast
+	 */
+	public int getMaxRays() {
+		return maxRays;
+	}
+
+	/**
+	 * Changes the number of rays this light casts
+	 *
+	 * The rays are recomputed on the next update.  The light cannot cast more rays than it
+	 * was created with (or fewer than MIN_RAYS), so the count is clamped to that range.
+	 *
+	 * @param rays	the number of rays
+	 */
+	public void setRays(int rays) {
+		rays = Math.max(MIN_RAYS, Math.min(rays, maxRays));
+		if (rays == rayNum) return;
+		setRayNum(rays);
+		dirty = true;
 	}
 
 	@Override
@@ -0,0 +1,116 @@
+package com.fallenflame.game;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * Compares LevelModel.computeDistanceField() (bitset BFS) against a BFS over tile objects in a LinkedList, the way
+ * enemies searched before, and against a BFS over a preallocated int queue, on every shipped level and on 3x3 copies
+ * of each. Every field is checked against the object BFS first.
+ *
+ * Run with: gradlew core:benchmark -Pbenchmark=DistanceFieldBenchmark
+ */
+public class DistanceFieldBenchmark {
+    /** Random walkable roots per level */
+    private static final int ROOTS = 64;
+    /** Passes over the roots before timing */
+    private static final int WARMUP_ROUNDS = 5;
+    /** Timed passes (the fastest is reported) */
+    private static final int ROUNDS = 20;
+
+    /** A queued tile of the object BFS */
+    private static class TileIndex {
+        final int x;
+        final int y;
+
+        TileIndex(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.printf("%-40s %9s %10s %10s %10s%n", "level", "tiles", "bitset us", "object us", "int us");
+        for (int copies = 1; copies <= 3; copies += 2) {
+            for (String name : TestLevels.names()) {
+                TestLevels map = TestLevels.load(name);
+                LevelModel level = (copies > 1 ? map.tile(copies) : map)
+                        .createLevelModel(LevelController.PATH_GRID_SIZE);
+                int w = level.getTileGridWidth(), h = level.getTileGridHeight();
+                int[] roots = new int[ROOTS];
+                Random random = new Random(w * 31 + h);
+                for (int i = 0; i < ROOTS; ) {
+                    int x = random.nextInt(w), y = random.nextInt(h);
+                    if (level.isWalkable(x, y)) roots[i++] = x + y * w;
+                }
+
+                int[] bitset = new int[w * h], reference = new int[w * h], queue = new int[w * h];
+                for (int root : roots) {
+                    level.computeDistanceField(root % w, root / w, bitset);
+                    objectBfs(level, root % w, root / w, reference);
+                    if (!Arrays.equals(bitset, reference))
+                        throw new AssertionError(name + ": fields differ at root " + root);
+                }
+
+                long bestBitset = Long.MAX_VALUE, bestObject = Long.MAX_VALUE, bestInt = Long.MAX_VALUE;
+                for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    for (int root : roots) level.computeDistanceField(root % w, root / w, bitset);
+                    long bitsetTime = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    for (int root : roots) objectBfs(level, root % w, root / w, reference);
+                    long objectTime = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    for (int root : roots) intBfs(level, root % w, root / w, reference, queue);
+                    long intTime = System.nanoTime() - start;
+                    if (round < WARMUP_ROUNDS) continue;
+                    bestBitset = Math.min(bestBitset, bitsetTime);
+                    bestObject = Math.min(bestObject, objectTime);
+                    bestInt = Math.min(bestInt, intTime);
+                }
+                System.out.printf("%-40s %9s %10.1f %10.1f %10.1f%n", name + (copies > 1 ? " x" + copies * copies : ""),
+                        w + "x" + h, bestBitset / 1e3 / ROOTS, bestObject / 1e3 / ROOTS, bestInt / 1e3 / ROOTS);
+            }
+        }
+    }
+
+    /** 8-way BFS from the root over walkable tiles, queueing a new object per tile */
+    private static void objectBfs(LevelModel level, int rootX, int rootY, int[] dist) {
+        int w = level.getTileGridWidth();
+        Arrays.fill(dist, -1);
+        LinkedList<TileIndex> queue = new LinkedList<>();
+        dist[rootX + rootY * w] = 0;
+        queue.add(new TileIndex(rootX, rootY));
+        while (!queue.isEmpty()) {
+            TileIndex t = queue.poll();
+            int d = dist[t.x + t.y * w] + 1;
+            for (int nx = t.x - 1; nx <= t.x + 1; nx++) {
+                for (int ny = t.y - 1; ny <= t.y + 1; ny++) {
+                    if (!level.isWalkable(nx, ny) || dist[nx + ny * w] != -1) continue;
+                    dist[nx + ny * w] = d;
+                    queue.add(new TileIndex(nx, ny));
+                }
+            }
+        }
+    }
+
+    /** The same BFS over a preallocated queue of packed tile indices */
+    private static void intBfs(LevelModel level, int rootX, int rootY, int[] dist, int[] queue) {
+        int w = level.getTileGridWidth();
+        Arrays.fill(dist, -1);
+        int head = 0, tail = 0;
+        dist[rootX + rootY * w] = 0;
+        queue[tail++] = rootX + rootY * w;
+        while (head < tail) {
+            int idx = queue[head++], x = idx % w, y = idx / w, d = dist[idx] + 1;
+            for (int nx = x - 1; nx <= x + 1; nx++) {
+                for (int ny = y - 1; ny <= y + 1; ny++) {
+                    if (!level.isWalkable(nx, ny) || dist[nx + ny * w] != -1) continue;
+                    dist[nx + ny * w] = d;
+                    queue[tail++] = nx + ny * w;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.fallenflame.game;
+
+import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.physics.box2d.RayCastCallback;
+import com.badlogic.gdx.physics.box2d.World;
+
+import java.util.Random;
+
+/**
+ * Ray casting cost per frame of the lights with a fixed RAYS rays each against the adaptive count of
+ * LightController.rayCount(), on the walls and trees of a shipped level in a Box2D world (no GL, so nothing is drawn).
+ * The game's lights filter out every fixture (category and mask 0), so each ray runs its full length and the world
+ * reports every fixture along it; the callback here ignores them the same way. Each frame puts the camera somewhere
+ * random and lights it like a busy scene: the player, the exit, flares, fireballs and items, some of them off to the
+ * side of the view.
+ *
+ * Run with: gradlew core:benchmark -Pbenchmark=LightRayBenchmark
+ */
+public class LightRayBenchmark {
+    /** Pixels per world unit, as LevelController draws the levels */
+    private static final float SCALE = 50;
+    /** Window size (in pixels) of the desktop launcher */
+    private static final float VIEW_WIDTH = 1260;
+    private static final float VIEW_HEIGHT = 720;
+    /** Frames before timing, and frames timed */
+    private static final int WARMUP_FRAMES = 50;
+    private static final int FRAMES = 400;
+    /** Light radius of the player walking and sneaking, with the fifth LightController adds to every light */
+    private static final float WALK_RADIUS = 8.4f;
+    private static final float SNEAK_RADIUS = 2.4f;
+    /**
+     * The other lights of a frame: their radius, and how far they spread around the view center (in view sizes).
+     * The exit, three flares, two fireballs and five items.
+     */
+    private static final float[][] LIGHTS = {{1.2f, 1.5f}, {4.2f, 1}, {4.2f, 1}, {4.2f, 1}, {2.4f, 1}, {2.4f, 1},
+            {1.2f, 1.5f}, {1.2f, 1.5f}, {1.2f, 1.5f}, {1.2f, 1.5f}, {1.2f, 1.5f}};
+
+    /** Fixtures reported along the rays */
+    private static int reported;
+    /** Ignores every fixture (-1), like box2dlights does for fixtures its contact filter rejects */
+    private static final RayCastCallback CALLBACK = (fixture, point, normal, fraction) -> {
+        reported++;
+        return -1;
+    };
+
+    public static void main(String[] args) {
+        System.out.printf("%-36s %12s %12s %10s %10s%n",
+                "level", "fixed rays", "adapt. rays", "fixed us", "adapt. us");
+        for (String name : new String[] {"ronnie-maze-level.json", "lauraforest.json"}) {
+            run(name);
+        }
+    }
+
+    /** Times the rays of random frames on a level */
+    private static void run(String name) {
+        TestLevels map = TestLevels.load(name);
+        World world = new World(Vector2.Zero, false);
+        for (WallModel wall : map.walls) addBox(world, wall.getX(), wall.getY(), wall.getWidth(), wall.getHeight());
+        for (TreeModel tree : map.trees) addBox(world, tree.getX(), tree.getY(), tree.getWidth(), tree.getHeight());
+        Rectangle bounds = map.bounds;
+        OrthographicCamera view = new OrthographicCamera(VIEW_WIDTH / SCALE, VIEW_HEIGHT / SCALE);
+        float vw = view.viewportWidth, vh = view.viewportHeight;
+        Random random = new Random(name.hashCode());
+
+        long fixedTime = 0, adaptiveTime = 0, fixedRays = 0, adaptiveRays = 0;
+        for (int frame = 0; frame < WARMUP_FRAMES + FRAMES; frame++) {
+            view.position.set(random.nextFloat() * bounds.width, random.nextFloat() * bounds.height, 0);
+            // The player is at the center, walking on every third frame
+            for (int l = -1; l < LIGHTS.length; l++) {
+                float radius = l < 0 ? (frame % 3 == 0 ? WALK_RADIUS : SNEAK_RADIUS) : LIGHTS[l][0];
+                float spread = l < 0 ? 0 : LIGHTS[l][1];
+                float x = view.position.x + (random.nextFloat() - 0.5f) * vw * spread;
+                float y = view.position.y + (random.nextFloat() - 0.5f) * vh * spread;
+                int rays = LightController.rayCount(radius, x, y, view, SCALE, LightController.RAY_PIXELS,
+                        LightController.MIN_RAYS, LightController.RAYS, 0);
+                long fixed = cast(world, x, y, radius, LightController.RAYS);
+                long adaptive = cast(world, x, y, radius, rays);
+                if (frame < WARMUP_FRAMES) continue;
+                fixedTime += fixed;
+                adaptiveTime += adaptive;
+                fixedRays += LightController.RAYS;
+                adaptiveRays += rays;
+            }
+        }
+        System.out.printf("%-36s %12d %12d %10.0f %10.0f%n", name, fixedRays / FRAMES, adaptiveRays / FRAMES,
+                fixedTime / 1e3 / FRAMES, adaptiveTime / 1e3 / FRAMES);
+        if (reported < 0) System.out.println();
+        world.dispose();
+    }
+
+    /** Adds a static box obstacle centered on (x, y) */
+    private static void addBox(World world, float x, float y, float width, float height) {
+        BodyDef def = new BodyDef();
+        def.position.set(x, y);
+        Body body = world.createBody(def);
+        PolygonShape shape = new PolygonShape();
+        shape.setAsBox(width / 2, height / 2);
+        body.createFixture(shape, 0);
+        shape.dispose();
+    }
+
+    /** Casts the rays of a point light the way box2dlights does, and returns the time (in nanoseconds) it took */
+    private static long cast(World world, float x, float y, float distance, int rays) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rays; i++) {
+            float angle = MathUtils.PI2 * i / (rays - 1);
+            world.rayCast(CALLBACK, x, y, x + distance * MathUtils.cos(angle), y + distance * MathUtils.sin(angle));
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,120 @@
+package com.fallenflame.game;
+
+import com.fallenflame.game.enemies.EnemyGhostModel;
+import com.fallenflame.game.enemies.EnemyModel;
+import com.fallenflame.game.enemies.EnemyTypeAModel;
+import com.fallenflame.game.enemies.EnemyTypeBModel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The incremental footprint updates of OccupancyGrid must leave the grid and its level model views exactly as a
+ * grid built from scratch with the characters where they are now.
+ */
+public class OccupancyGridTest {
+    /** Random character moves per level */
+    private static final int STEPS = 1500;
+    /** Steps between comparisons against a fresh grid */
+    private static final int CHECK_INTERVAL = 25;
+
+    @Test
+    public void incrementalUpdatesMatchFullRebuild() {
+        Random random = new Random(13);
+        for (String name : new String[]{"ronnie-maze-level.json", "lauraforest.json", "shooternest.json", "t1.json"}) {
+            TestLevels level = TestLevels.load(name);
+            OccupancyGrid grid = level.createOccupancyGrid(LevelController.OCCUPANCY_GRID_SIZE);
+            LevelModel path = new LevelModel();
+            path.initialize(grid, LevelController.PATH_GRID_SIZE);
+            PlayerModel player = new PlayerModel();
+            place(player, level, random);
+            List<EnemyModel> enemies = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                enemies.add(place(newEnemy(random), level, random));
+            }
+            grid.update(player, enemies);
+            // Added after characters were stamped, so it starts from a replay of their footprints
+            LevelModel fog = new LevelModel();
+            fog.initialize(grid, LevelController.FOG_GRID_SIZE);
+
+            for (int step = 1; step <= STEPS; step++) {
+                move(player, level, random);
+                for (EnemyModel e : enemies) {
+                    move(e, level, random);
+                }
+                int roll = random.nextInt(20);
+                if (roll == 0 && !enemies.isEmpty()) {
+                    // Enemies dropped from the list are lifted by the next update
+                    enemies.remove(random.nextInt(enemies.size()));
+                } else if (roll == 1 && !enemies.isEmpty()) {
+                    grid.removeCharacter(enemies.remove(random.nextInt(enemies.size())));
+                } else if (roll == 2) {
+                    enemies.add(place(newEnemy(random), level, random));
+                }
+                grid.update(player, enemies);
+
+                if (step % CHECK_INTERVAL == 0 || step == STEPS)
+                    assertMatchesRebuild(name + " step " + step, level, grid, path, fog, player, enemies);
+            }
+        }
+    }
+
+    /** Compares a grid and its views against a grid built from scratch and stamped once */
+    private static void assertMatchesRebuild(String message, TestLevels level, OccupancyGrid grid, LevelModel path,
+                                             LevelModel fog, PlayerModel player, List<EnemyModel> enemies) {
+        OccupancyGrid fresh = level.createOccupancyGrid(LevelController.OCCUPANCY_GRID_SIZE);
+        LevelModel freshPath = new LevelModel();
+        freshPath.initialize(fresh, LevelController.PATH_GRID_SIZE);
+        LevelModel freshFog = new LevelModel();
+        freshFog.initialize(fresh, LevelController.FOG_GRID_SIZE);
+        fresh.update(player, enemies);
+
+        assertEquals(message, fresh.getCellCount(), grid.getCellCount());
+        for (int idx = 0; idx < grid.getCellCount(); idx++) {
+            assertEquals(message + " cell " + idx, fresh.getCellFlags(idx), grid.getCellFlags(idx));
+        }
+        assertSameTiles(message + " path", freshPath, path);
+        assertSameTiles(message + " fog", freshFog, fog);
+    }
+
+    private static void assertSameTiles(String message, LevelModel expected, LevelModel actual) {
+        int tiles = actual.getTileGridWidth() * actual.getTileGridHeight();
+        assertEquals(message, expected.getTileGridWidth() * expected.getTileGridHeight(), tiles);
+        for (int idx = 0; idx < tiles; idx++) {
+            assertEquals(message + " tile " + idx, expected.getTileFlags(idx), actual.getTileFlags(idx));
+        }
+    }
+
+    /** @return an enemy of a random type (types B and ghost stamp less fog) */
+    private static EnemyModel newEnemy(Random random) {
+        switch (random.nextInt(3)) {
+            case 0: return new EnemyTypeAModel();
+            case 1: return new EnemyTypeBModel();
+            default: return new EnemyGhostModel();
+        }
+    }
+
+    /** Puts a character at a random position with a random radius, partly off the level edges at times */
+    private static <T extends CharacterModel> T place(T c, TestLevels level, Random random) {
+        c.setRadius(0.1f + random.nextFloat() * 0.6f);
+        c.setPosition(random.nextFloat() * (level.bounds.width + 1) - 0.5f,
+                random.nextFloat() * (level.bounds.height + 1) - 0.5f);
+        return c;
+    }
+
+    /** Moves a character: usually a step of up to one path tile, sometimes nowhere or a jump anywhere */
+    private static void move(CharacterModel c, TestLevels level, Random random) {
+        int roll = random.nextInt(50);
+        if (roll < 10) return;
+        if (roll == 10) {
+            place(c, level, random);
+            return;
+        }
+        float step = LevelController.PATH_GRID_SIZE;
+        c.setPosition(c.getX() + (random.nextFloat() * 2 - 1) * step, c.getY() + (random.nextFloat() * 2 - 1) * step);
+    }
+}
@@ -0,0 +1,147 @@
+package com.fallenflame.game;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+
+import java.util.Random;
+
+/**
+ * Scaling of SpatialHash with hundreds of entities against the linear scans it replaced, with the level's cell size.
+ * The level grows with the entity count, keeping one entity per AREA_PER_ENTITY square units (several times as
+ * crowded as the shipped levels), and an eighth of the entities are flares. Per physics step, the indexes are
+ * rebuilt and then queried the way the game queries them: every enemy looks for a flare whose light covers it (AI
+ * flare checks), and the fog window asks for the flares and enemies it can see. Query results are checked against
+ * the scans first.
+ *
+ * Run with: gradlew core:benchmark -Pbenchmark=SpatialHashBenchmark
+ */
+public class SpatialHashBenchmark {
+    /** Level area (in square units) per entity */
+    private static final float AREA_PER_ENTITY = 16;
+    /** Flare light radius and enemy radius */
+    private static final float FLARE_RADIUS = 2.5f;
+    private static final float ENEMY_RADIUS = 0.4f;
+    /** Size of the fog window (a screen of fog tiles) */
+    private static final float WINDOW_WIDTH = 16;
+    private static final float WINDOW_HEIGHT = 10;
+    /** Steps before timing, and steps timed */
+    private static final int WARMUP_STEPS = 200;
+    private static final int STEPS = 500;
+
+    /** An entity disk */
+    private static class Disk {
+        float x, y;
+        final float r;
+
+        Disk(float x, float y, float r) {
+            this.x = x;
+            this.y = y;
+            this.r = r;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.printf("%9s %9s %11s %12s %12s %12s %12s%n",
+                "entities", "level", "rebuild us", "AI scan us", "AI hash us", "fog scan us", "fog hash us");
+        // The first pass over the sizes only warms up the JIT
+        for (int pass = 0; pass < 2; pass++) {
+            for (int n = 100; n <= 1600; n *= 2) {
+                run(n, pass > 0);
+            }
+        }
+    }
+
+    /**
+     * Runs the steps with n entities, an eighth of them flares and the rest enemies.
+     *
+     * @param n Number of entities
+     * @param print Whether to print the times
+     */
+    private static void run(int n, boolean print) {
+        Random random = new Random(n);
+        float side = (float) Math.sqrt(n * AREA_PER_ENTITY);
+        Rectangle bounds = new Rectangle(0, 0, side, side);
+        Disk[] flares = new Disk[n / 8], enemies = new Disk[n - n / 8];
+        for (int i = 0; i < flares.length; i++) {
+            flares[i] = new Disk(random.nextFloat() * bounds.width, random.nextFloat() * bounds.height,
+                    FLARE_RADIUS);
+        }
+        for (int i = 0; i < enemies.length; i++) {
+            enemies[i] = new Disk(random.nextFloat() * bounds.width, random.nextFloat() * bounds.height,
+                    ENEMY_RADIUS);
+        }
+        SpatialHash<Disk> flareIndex = new SpatialHash<>(bounds, LevelController.ENTITY_CELL_SIZE);
+        SpatialHash<Disk> enemyIndex = new SpatialHash<>(bounds, LevelController.ENTITY_CELL_SIZE);
+        Array<Disk> out = new Array<>();
+
+        long rebuild = 0, aiScan = 0, aiHash = 0, fogScan = 0, fogHash = 0;
+        int sink = 0;
+        for (int step = 0; step < WARMUP_STEPS + STEPS; step++) {
+            for (Disk d : enemies) {
+                d.x = clamp(d.x + random.nextFloat() * 0.2f - 0.1f, side);
+                d.y = clamp(d.y + random.nextFloat() * 0.2f - 0.1f, side);
+            }
+            float wx = random.nextFloat() * (bounds.width - WINDOW_WIDTH);
+            float wy = random.nextFloat() * (bounds.height - WINDOW_HEIGHT);
+
+            long t0 = System.nanoTime();
+            flareIndex.clear();
+            enemyIndex.clear();
+            for (Disk f : flares) flareIndex.insert(f, f.x, f.y, f.r);
+            for (Disk e : enemies) enemyIndex.insert(e, e.x, e.y, e.r);
+            long t1 = System.nanoTime();
+            int scanFound = 0;
+            for (Disk e : enemies) {
+                for (Disk f : flares) {
+                    if (covers(f, e.x, e.y)) {
+                        scanFound++;
+                        break;
+                    }
+                }
+            }
+            long t2 = System.nanoTime();
+            int hashFound = 0;
+            for (Disk e : enemies) {
+                flareIndex.queryRadius(e.x, e.y, 0, out);
+                if (out.size > 0) hashFound++;
+            }
+            long t3 = System.nanoTime();
+            int scanVisible = 0;
+            for (Disk f : flares) if (reaches(f, wx, wy)) scanVisible++;
+            for (Disk e : enemies) if (reaches(e, wx, wy)) scanVisible++;
+            long t4 = System.nanoTime();
+            int hashVisible = flareIndex.queryAABB(wx, wy, wx + WINDOW_WIDTH, wy + WINDOW_HEIGHT, out)
+                    + enemyIndex.queryAABB(wx, wy, wx + WINDOW_WIDTH, wy + WINDOW_HEIGHT, out);
+            long t5 = System.nanoTime();
+
+            if (scanFound != hashFound || scanVisible != hashVisible)
+                throw new AssertionError("index and scan disagree with " + n + " entities");
+            sink += hashFound + hashVisible;
+            if (step < WARMUP_STEPS) continue;
+            rebuild += t1 - t0;
+            aiScan += t2 - t1;
+            aiHash += t3 - t2;
+            fogScan += t4 - t3;
+            fogHash += t5 - t4;
+        }
+        if (print) System.out.printf("%9d %9s %11.1f %12.1f %12.1f %12.1f %12.1f%n", n,
+                (int) side + "x" + (int) side, rebuild / 1e3 / STEPS,
+                aiScan / 1e3 / STEPS, aiHash / 1e3 / STEPS, fogScan / 1e3 / STEPS, fogHash / 1e3 / STEPS);
+        if (sink < 0) System.out.println();
+    }
+
+    private static float clamp(float v, float max) { return Math.max(0, Math.min(max, v)); }
+
+    /** Whether a disk covers a point */
+    private static boolean covers(Disk d, float x, float y) {
+        float dx = d.x - x, dy = d.y - y;
+        return dx * dx + dy * dy <= d.r * d.r;
+    }
+
+    /** Whether a disk reaches the fog window with the given lower left corner */
+    private static boolean reaches(Disk d, float x0, float y0) {
+        float dx = Math.max(0, Math.max(x0 - d.x, d.x - (x0 + WINDOW_WIDTH)));
+        float dy = Math.max(0, Math.max(y0 - d.y, d.y - (y0 + WINDOW_HEIGHT)));
+        return dx * dx + dy * dy <= d.r * d.r;
+    }
+}
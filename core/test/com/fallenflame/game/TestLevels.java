@@ -0,0 +1,180 @@
+package com.fallenflame.game;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.physics.box2d.Box2D;
+import com.badlogic.gdx.utils.GdxNativesLoader;
+import com.badlogic.gdx.utils.JsonReader;
+import com.badlogic.gdx.utils.JsonValue;
+import com.fallenflame.game.enemies.EnemyModel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The walls and trees of a shipped level, read from its JSON without textures or a physics world, for tests and
+ * benchmarks. Paths are relative to the core project directory (the working directory of gradle's test and
+ * benchmark tasks).
+ */
+public class TestLevels {
+    /** Directory of the shipped levels */
+    public static final File LEVEL_DIR = new File("assets/jsons/levels");
+    /** Global constants (for the tree size) */
+    public static final File GLOBAL_JSON = new File("assets/jsons/global.json");
+
+    static {
+        // Walls and trees are box obstacles, whose shapes live in native Box2D memory
+        GdxNativesLoader.load();
+        Box2D.init();
+    }
+
+    /** Level bounds */
+    public final Rectangle bounds;
+    /** Walls of the level, positioned and sized but without bodies */
+    public final List<WallModel> walls = new ArrayList<>();
+    /** Trees of the level, positioned and sized but without bodies */
+    public final List<TreeModel> trees = new ArrayList<>();
+
+    /**
+     * Reads the walls and trees of a level.
+     *
+     * @param levelJson The level JSON
+     * @param globalJson The global constants JSON
+     */
+    private TestLevels(JsonValue levelJson, JsonValue globalJson) {
+        float[] size = levelJson.get("physicsSize").asFloatArray();
+        bounds = new Rectangle(0, 0, size[0], size[1]);
+        for (JsonValue wallJSON : levelJson.get("walls")) {
+            float[] pos = wallJSON.get("pos").asFloatArray(), dim = wallJSON.get("size").asFloatArray();
+            WallModel wall = new WallModel();
+            wall.setDimension(dim[0], dim[1]);
+            wall.setPosition(pos[0], pos[1]);
+            walls.add(wall);
+        }
+        if (levelJson.get("trees") != null) {
+            float[] dim = globalJson.get("tree").get("size").asFloatArray();
+            for (JsonValue treeJSON : levelJson.get("trees")) {
+                float[] pos = treeJSON.get("pos").asFloatArray();
+                TreeModel tree = new TreeModel();
+                tree.setDimension(dim[0], dim[1]);
+                tree.setPosition(pos[0], pos[1]);
+                trees.add(tree);
+            }
+        }
+    }
+
+    /**
+     * Creates an empty level.
+     *
+     * @param bounds Level bounds
+     */
+    private TestLevels(Rectangle bounds) {
+        this.bounds = bounds;
+    }
+
+    /**
+     * Creates a level copied side by side, copies times along each axis.
+     *
+     * @param level The level to copy
+     * @param copies Number of copies along each axis
+     */
+    private TestLevels(TestLevels level, int copies) {
+        bounds = new Rectangle(0, 0, level.bounds.width * copies, level.bounds.height * copies);
+        for (int i = 0; i < copies; i++) {
+            for (int j = 0; j < copies; j++) {
+                float dx = i * level.bounds.width, dy = j * level.bounds.height;
+                for (WallModel w : level.walls) {
+                    WallModel wall = new WallModel();
+                    wall.setDimension(w.getWidth(), w.getHeight());
+                    wall.setPosition(w.getX() + dx, w.getY() + dy);
+                    walls.add(wall);
+                }
+                for (TreeModel t : level.trees) {
+                    TreeModel tree = new TreeModel();
+                    tree.setDimension(t.getWidth(), t.getHeight());
+                    tree.setPosition(t.getX() + dx, t.getY() + dy);
+                    trees.add(tree);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a square level of randomly placed short walls, which (unlike copies of a walled-in level) is mostly one
+     * connected region at every size.
+     *
+     * @param size Width and height of the level
+     * @param tileSize Path tile size the walls are measured in
+     * @param seed Random seed
+     * @return the level
+     */
+    public static TestLevels random(float size, float tileSize, long seed) {
+        Random random = new Random(seed);
+        TestLevels level = new TestLevels(new Rectangle(0, 0, size, size));
+        int tiles = (int) (size / tileSize);
+        for (int i = 0; i < tiles * tiles / 12; i++) {
+            float w = tileSize * (1 + random.nextInt(6)), h = tileSize * (1 + random.nextInt(2));
+            WallModel wall = new WallModel();
+            if (random.nextBoolean()) wall.setDimension(w, h);
+            else wall.setDimension(h, w);
+            wall.setPosition(random.nextFloat() * size, random.nextFloat() * size);
+            level.walls.add(wall);
+        }
+        return level;
+    }
+
+    /** @return the file names of the shipped levels, sorted */
+    public static List<String> names() {
+        String[] names = LEVEL_DIR.list((dir, name) -> name.endsWith(".json"));
+        if (names == null) throw new IllegalStateException("No levels in " + LEVEL_DIR.getAbsolutePath());
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    /**
+     * Reads a shipped level.
+     *
+     * @param name The level file name (one of names())
+     * @return the level's walls and trees
+     */
+    public static TestLevels load(String name) {
+        JsonReader reader = new JsonReader();
+        return new TestLevels(reader.parse(new FileHandle(new File(LEVEL_DIR, name))),
+                reader.parse(new FileHandle(GLOBAL_JSON)));
+    }
+
+    /**
+     * Copies this level side by side, to get larger maps with the same kind of layout.
+     *
+     * @param copies Number of copies along each axis
+     * @return a level copies times as wide and as tall
+     */
+    public TestLevels tile(int copies) {
+        return new TestLevels(this, copies);
+    }
+
+    /**
+     * Rasterizes the level into a new occupancy grid.
+     *
+     * @param cellSize The cell size
+     * @return the occupancy grid
+     */
+    public OccupancyGrid createOccupancyGrid(float cellSize) {
+        return new OccupancyGrid(bounds, walls, trees, cellSize);
+    }
+
+    /**
+     * Creates a level model on its own occupancy grid.
+     *
+     * @param tileSize The tile size
+     * @return the level model
+     */
+    public LevelModel createLevelModel(float tileSize) {
+        LevelModel level = new LevelModel();
+        level.initialize(bounds, walls, trees, new ArrayList<EnemyModel>(), tileSize);
+        return level;
+    }
+}
@@ -0,0 +1,234 @@
+package com.fallenflame.game.enemies;
+
+import com.badlogic.gdx.math.Vector2;
+import com.fallenflame.game.FlareModel;
+import com.fallenflame.game.LevelController;
+import com.fallenflame.game.LevelModel;
+import com.fallenflame.game.PlayerModel;
+import com.fallenflame.game.SpatialHash;
+import com.fallenflame.game.TestLevels;
+import com.fallenflame.game.physics.obstacle.Obstacle;
+import com.sun.management.ThreadMXBean;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Steady-state AI ticks (scheduling, state and move re-plans) must not allocate: searches run on each controller's
+ * preallocated scratch, and the game's type A enemies read the shared flow field, distance fields and flare index.
+ */
+public class AIControllerAllocationTest {
+    /** Enemies per level */
+    private static final int ENEMIES = 8;
+    /** Ticks run before measuring, so scratch is sized, goals have been seen and the JIT has settled */
+    private static final int WARMUP_TICKS = 20000;
+    /** Ticks measured */
+    private static final int TICKS = 5000;
+
+    /** Controller that heads for a random walkable tile, moving its enemy to another one every tick */
+    private static class WanderController extends AIController {
+        private final int[] walkable;
+        private final Random random;
+
+        WanderController(int id, LevelModel level, List<EnemyModel> enemies, int[] walkable) {
+            super(id, level, enemies, null);
+            this.walkable = walkable;
+            random = new Random(id);
+        }
+
+        @Override
+        public float getDistanceToPlayer2() { return 0; }
+
+        @Override
+        protected void changeStateIfApplicable() {
+            int tile = walkable[random.nextInt(walkable.length)];
+            enemy.setPosition(level.tileToScreen(tile % level.getTileGridWidth()),
+                    level.tileToScreen(tile / level.getTileGridWidth()));
+        }
+
+        @Override
+        protected void markGoalTiles() {
+            int tile = walkable[random.nextInt(walkable.length)];
+            setGoalTile(tile % level.getTileGridWidth(), tile / level.getTileGridWidth());
+        }
+    }
+
+    /** Player with a fixed light radius (its own is read from the global JSON with its textures and sounds) */
+    private static class LitPlayer extends PlayerModel {
+        @Override
+        public float getLightRadius() { return 5; }
+    }
+
+    /** Flare with a fixed light radius that burns out when told to */
+    private static class TestFlare extends FlareModel {
+        boolean burntOut;
+
+        TestFlare() { super(new Vector2()); }
+
+        @Override
+        public float getLightRadius() { return 3.5f; }
+
+        @Override
+        public int timeToBurnout() { return burntOut ? 0 : -1; }
+    }
+
+    @Test
+    public void bfsTicksDoNotAllocate() { assertNoAllocation(AIController.PlannerType.BFS); }
+
+    @Test
+    public void aStarTicksDoNotAllocate() { assertNoAllocation(AIController.PlannerType.ASTAR); }
+
+    @Test
+    public void hpaTicksDoNotAllocate() { assertNoAllocation(AIController.PlannerType.HPA); }
+
+    private void assertNoAllocation(AIController.PlannerType type) {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (String name : new String[]{"ronnie-maze-level.json", "max3.json", "lauraforest.json"}) {
+            LevelModel level = TestLevels.load(name).createLevelModel(0.6f);
+            ClusterGraph clusterGraph = new ClusterGraph(level, ClusterGraph.DEFAULT_CLUSTER_SIZE);
+
+            int[] walkable = walkableTiles(level);
+
+            List<EnemyModel> enemies = new ArrayList<>();
+            List<AIController> controllers = new ArrayList<>();
+            for (int i = 0; i < ENEMIES; i++) {
+                enemies.add(new EnemyTypeAModel());
+                AIController controller = new WanderController(i, level, enemies, walkable);
+                controller.setPlannerType(type);
+                controller.setClusterGraph(clusterGraph);
+                controllers.add(controller);
+            }
+            AIScheduler scheduler = new AIScheduler(Long.MAX_VALUE / 1000);
+            boolean[] replanning = new boolean[ENEMIES];
+
+            runTicks(level, scheduler, controllers, replanning, WARMUP_TICKS);
+            long before = threads.getThreadAllocatedBytes(thread);
+            runTicks(level, scheduler, controllers, replanning, TICKS);
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            assertEquals(type + " on " + name + " allocated bytes", 0, allocated);
+        }
+    }
+
+    @Test
+    public void typeAChaseAndInvestigateTicksDoNotAllocate() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        TestLevels map = TestLevels.load("ronnie-maze-level.json");
+        LevelModel level = map.createLevelModel(LevelController.PATH_GRID_SIZE);
+        int[] walkable = walkableTiles(level);
+        Random random = new Random(3);
+
+        PlayerModel player = new LitPlayer();
+        List<FlareModel> flares = new ArrayList<>();
+        for (int i = 0; i < 3; i++) flares.add(new TestFlare());
+        SpatialHash<FlareModel> flareIndex = new SpatialHash<>(map.bounds, LevelController.ENTITY_CELL_SIZE);
+        List<EnemyModel> enemies = new ArrayList<>();
+        List<AIController> controllers = new ArrayList<>();
+        for (int i = 0; i < ENEMIES; i++) enemies.add(new EnemyTypeAModel());
+        for (int i = 0; i < ENEMIES; i++) {
+            AITypeAController controller = new AITypeAController(i, level, enemies, player, flares);
+            controller.setFlareIndex(flareIndex);
+            controllers.add(controller);
+        }
+        AIScheduler scheduler = new AIScheduler(Long.MAX_VALUE / 1000);
+        boolean[] replanning = new boolean[ENEMIES];
+
+        // The warm-up must have sent enemies after the player and after flares
+        boolean chased = false, investigatedFlare = false;
+        for (int t = 0; t < WARMUP_TICKS; t++) {
+            runScene(level, random, walkable, player, flares, flareIndex, enemies, scheduler, controllers,
+                    replanning, t);
+            for (EnemyModel e : enemies) {
+                chased |= e.isAgressive();
+                investigatedFlare |= ((EnemyTypeAModel) e).isInvestigatingFlare();
+            }
+        }
+        assertTrue("no enemy chased the player", chased);
+        assertTrue("no enemy investigated a flare", investigatedFlare);
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int t = WARMUP_TICKS; t < WARMUP_TICKS + TICKS; t++) {
+            runScene(level, random, walkable, player, flares, flareIndex, enemies, scheduler, controllers,
+                    replanning, t);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertEquals("type A enemies on ronnie-maze-level.json allocated bytes", 0, allocated);
+    }
+
+    /**
+     * Runs one tick of a scene where enemies walk their planned moves: the player jumps to a random tile every 40
+     * ticks, enemies to one every 150 (one at a time), and the flares burn out and are fired elsewhere every 300.
+     */
+    private static void runScene(LevelModel level, Random random, int[] walkable, PlayerModel player,
+                                 List<FlareModel> flares, SpatialHash<FlareModel> flareIndex,
+                                 List<EnemyModel> enemies, AIScheduler scheduler, List<AIController> controllers,
+                                 boolean[] replanning, int tick) {
+        if (tick % 40 == 0) moveToRandomTile(level, random, walkable, player);
+        if (tick % 150 < enemies.size()) moveToRandomTile(level, random, walkable, enemies.get(tick % 150));
+        for (int i = 0; i < flares.size(); i++) {
+            TestFlare flare = (TestFlare) flares.get(i);
+            flare.burntOut = tick % 300 == 299;
+            if (tick % 300 == 0) moveToRandomTile(level, random, walkable, flare);
+        }
+        flareIndex.clear();
+        for (FlareModel f : flares) flareIndex.insert(f, f.getX(), f.getY(), f.getLightRadius());
+        level.updateFlowField(level.screenToTile(player.getX()), level.screenToTile(player.getY()));
+        runTicks(level, scheduler, controllers, replanning, 1);
+        // Walk each enemy one tile along its last planned move
+        for (int c = 0; c < controllers.size(); c++) {
+            int action = controllers.get(c).getCurrentAction();
+            for (int i = 0; i < AIController.MOVE_CTRL.length; i++) {
+                if (AIController.MOVE_CTRL[i] != action) continue;
+                EnemyModel e = enemies.get(c);
+                int x = level.screenToTile(e.getX()) + AIController.MOVE_DX[i];
+                int y = level.screenToTile(e.getY()) + AIController.MOVE_DY[i];
+                if (level.isWalkable(x, y)) e.setPosition(level.tileToScreen(x), level.tileToScreen(y));
+            }
+        }
+    }
+
+    /** Puts an obstacle on the center of a random walkable tile */
+    private static void moveToRandomTile(LevelModel level, Random random, int[] walkable,
+                                         Obstacle o) {
+        int tile = walkable[random.nextInt(walkable.length)];
+        o.setPosition(level.tileToScreen(tile % level.getTileGridWidth()),
+                level.tileToScreen(tile / level.getTileGridWidth()));
+    }
+
+    /** @return the indices of the walkable tiles of a level */
+    private static int[] walkableTiles(LevelModel level) {
+        int[] walkable = new int[level.getTileGridWidth() * level.getTileGridHeight()];
+        int numWalkable = 0;
+        for (int y = 0; y < level.getTileGridHeight(); y++) {
+            for (int x = 0; x < level.getTileGridWidth(); x++) {
+                if (level.isWalkable(x, y)) walkable[numWalkable++] = level.tileIndex(x, y);
+            }
+        }
+        return Arrays.copyOf(walkable, numWalkable);
+    }
+
+    /** Runs AI ticks the way LevelController.update() does, planning sequentially */
+    private static void runTicks(LevelModel level, AIScheduler scheduler, List<AIController> controllers,
+                                 boolean[] replanning, int ticks) {
+        for (int t = 0; t < ticks; t++) {
+            level.update();
+            scheduler.schedule(controllers, replanning);
+            for (int c = 0; c < controllers.size(); c++) {
+                if (replanning[c]) controllers.get(c).updateState();
+            }
+            for (int c = 0; c < controllers.size(); c++) {
+                if (replanning[c]) {
+                    controllers.get(c).updateMove();
+                    controllers.get(c).getCurrentAction();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.fallenflame.game.enemies;
+
+import com.fallenflame.game.LevelModel;
+
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Controller that plans from a given tile to a given goal tile, for tests and benchmarks of the planners.
+ */
+class GoalController extends AIController {
+    /** Goal tile of the next plan */
+    private int goalTileX;
+    private int goalTileY;
+
+    /**
+     * Creates a controller with its own enemy.
+     *
+     * @param level The level to plan on
+     * @param type The planner to use
+     */
+    GoalController(LevelModel level, PlannerType type) {
+        super(0, level, Collections.<EnemyModel>singletonList(new EnemyTypeAModel()), null);
+        setPlannerType(type);
+    }
+
+    /**
+     * Moves the enemy to the start tile and plans the first move toward the goal tile, as a re-plan would.
+     *
+     * @return the move's control code, or NO_ACTION if there is no path
+     */
+    int plan(int startX, int startY, int goalX, int goalY) {
+        enemy.setPosition(level.tileToScreen(startX), level.tileToScreen(startY));
+        goalTileX = goalX;
+        goalTileY = goalY;
+        updateState();
+        updateMove();
+        return getCurrentAction();
+    }
+
+    /**
+     * Picks random queries between distinct walkable tiles of the same region, so every query has a path.
+     *
+     * @param level The level
+     * @param count Number of queries
+     * @param seed Random seed
+     * @return startX, startY, goalX, goalY of each query, one after the other
+     */
+    static int[] randomQueries(LevelModel level, int count, long seed) {
+        Random random = new Random(seed);
+        int width = level.getTileGridWidth(), height = level.getTileGridHeight();
+        int[] queries = new int[4 * count];
+        for (int q = 0; q < count; ) {
+            int sx = random.nextInt(width), sy = random.nextInt(height);
+            int gx = random.nextInt(width), gy = random.nextInt(height);
+            if (!level.isWalkable(sx, sy) || !level.isWalkable(gx, gy) || (sx == gx && sy == gy)
+                    || level.getRegion(sx, sy) != level.getRegion(gx, gy)) continue;
+            queries[4 * q] = sx;
+            queries[4 * q + 1] = sy;
+            queries[4 * q + 2] = gx;
+            queries[4 * q + 3] = gy;
+            q++;
+        }
+        return queries;
+    }
+
+    @Override
+    protected void changeStateIfApplicable() { }
+
+    @Override
+    protected void markGoalTiles() { setGoalTile(goalTileX, goalTileY); }
+}
@@ -0,0 +1,57 @@
+package com.fallenflame.game.enemies;
+
+import com.fallenflame.game.LevelController;
+import com.fallenflame.game.LevelModel;
+import com.fallenflame.game.TestLevels;
+
+/**
+ * Per-query cost of the BFS, A* and HPA planners versus map size (64x64 up to 512x512 path tiles), with the time to
+ * build the cluster graph.
+ *
+ * Run with: gradlew core:benchmark -Pbenchmark=enemies.HierarchicalPlannerBenchmark
+ */
+public class HierarchicalPlannerBenchmark {
+    /** Random start and goal pairs per map */
+    private static final int QUERIES = 300;
+
+    public static void main(String[] args) {
+        System.out.printf("%-22s %8s %9s %10s %10s %10s %12s%n",
+                "map", "nodes", "build ms", "BFS us", "A* us", "HPA us", "HPA expanded");
+        // Copies of a walled-in maze keep queries inside one copy, so they show the cost of the map size alone;
+        // random walls connect the whole map, so queries there also get longer as it grows
+        TestLevels maze = TestLevels.load("ronnie-maze-level.json");
+        for (int copies = 1; copies <= 8; copies *= 2) {
+            run("maze x" + copies * copies, maze.tile(copies));
+        }
+        for (int tiles = 64; tiles <= 512; tiles *= 2) {
+            run("random walls", TestLevels.random(tiles * LevelController.PATH_GRID_SIZE,
+                    LevelController.PATH_GRID_SIZE, tiles));
+        }
+    }
+
+    /** Builds the cluster graph of a map and times the planners on it */
+    private static void run(String name, TestLevels map) {
+        LevelModel level = map.createLevelModel(LevelController.PATH_GRID_SIZE);
+        long start = System.nanoTime();
+        ClusterGraph graph = new ClusterGraph(level, ClusterGraph.DEFAULT_CLUSTER_SIZE);
+        double build = (System.nanoTime() - start) / 1e6;
+        int[] queries = GoalController.randomQueries(level, QUERIES, level.getTileGridWidth());
+
+        GoalController bfs = new GoalController(level, AIController.PlannerType.BFS);
+        GoalController aStar = new GoalController(level, AIController.PlannerType.ASTAR);
+        GoalController hpa = new GoalController(level, AIController.PlannerType.HPA);
+        hpa.setClusterGraph(graph);
+
+        HierarchicalPlanner planner = new HierarchicalPlanner(graph);
+        long expanded = 0;
+        for (int q = 0; q < queries.length; q += 4) {
+            planner.findFirstMove(queries[q], queries[q + 1], queries[q + 2], queries[q + 3]);
+            expanded += planner.getExpanded();
+        }
+
+        System.out.printf("%-22s %8d %9.1f %10.1f %10.1f %10.1f %12.1f%n",
+                name + " " + level.getTileGridWidth() + "x" + level.getTileGridHeight(), graph.getNodeCount(),
+                build, PlannerBenchmark.time(bfs, queries) / 1e3, PlannerBenchmark.time(aStar, queries) / 1e3,
+                PlannerBenchmark.time(hpa, queries) / 1e3, expanded / (double) QUERIES);
+    }
+}
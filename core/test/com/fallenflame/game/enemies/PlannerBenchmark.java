@@ -0,0 +1,65 @@
+package com.fallenflame.game.enemies;
+
+import com.fallenflame.game.LevelController;
+import com.fallenflame.game.LevelModel;
+import com.fallenflame.game.TestLevels;
+
+/**
+ * Compares the cost of a goal-tile re-plan with the BFS and A* planners on every shipped level.
+ *
+ * Run with: gradlew core:benchmark -Pbenchmark=enemies.PlannerBenchmark
+ */
+public class PlannerBenchmark {
+    /** Random start and goal pairs per level */
+    private static final int QUERIES = 500;
+    /** Passes over the queries before timing */
+    private static final int WARMUP_ROUNDS = 5;
+    /** Timed passes (the fastest is reported) */
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        System.out.printf("%-36s %7s %10s %10s %8s %12s%n",
+                "level", "tiles", "BFS ns", "A* ns", "speedup", "A* expanded");
+        for (String name : TestLevels.names()) {
+            LevelModel level = TestLevels.load(name).createLevelModel(LevelController.PATH_GRID_SIZE);
+            int[] queries = GoalController.randomQueries(level, QUERIES, name.hashCode());
+            GoalController bfs = new GoalController(level, AIController.PlannerType.BFS);
+            GoalController aStar = new GoalController(level, AIController.PlannerType.ASTAR);
+
+            // Both planners must agree on which queries have a first move
+            for (int q = 0; q < queries.length; q += 4) {
+                boolean found = bfs.plan(queries[q], queries[q + 1], queries[q + 2], queries[q + 3])
+                        != EnemyModel.CONTROL_NO_ACTION;
+                if (found != (aStar.plan(queries[q], queries[q + 1], queries[q + 2], queries[q + 3])
+                        != EnemyModel.CONTROL_NO_ACTION))
+                    throw new AssertionError(name + ": BFS and A* disagree on query " + q / 4);
+            }
+
+            AStarPlanner planner = new AStarPlanner(level);
+            long expanded = 0;
+            for (int q = 0; q < queries.length; q += 4) {
+                planner.findFirstMove(queries[q], queries[q + 1], queries[q + 2], queries[q + 3]);
+                expanded += planner.getExpanded();
+            }
+
+            double bfsTime = time(bfs, queries), aStarTime = time(aStar, queries);
+            System.out.printf("%-36s %7d %10.0f %10.0f %7.1fx %12.1f%n", name,
+                    level.getTileGridWidth() * level.getTileGridHeight(), bfsTime, aStarTime,
+                    bfsTime / aStarTime, expanded / (double) QUERIES);
+        }
+    }
+
+    /** @return the fastest time (in nanoseconds) per query over ROUNDS passes */
+    static double time(GoalController controller, int[] queries) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int q = 0; q < queries.length; q += 4) {
+                controller.plan(queries[q], queries[q + 1], queries[q + 2], queries[q + 3]);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) best = Math.min(best, elapsed);
+        }
+        return best / (double) (queries.length / 4);
+    }
+}